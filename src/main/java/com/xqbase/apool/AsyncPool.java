@@ -1,11 +1,17 @@
 package com.xqbase.apool;
 
+import com.xqbase.apool.callback.AcquireFuture;
 import com.xqbase.apool.callback.Callback;
+import com.xqbase.apool.callback.LeaseFuture;
 import com.xqbase.apool.stats.PoolStats;
+import com.xqbase.apool.stats.StatsVisitor;
 import com.xqbase.apool.util.Cancellable;
 import com.xqbase.apool.util.None;
 
 import java.util.Collection;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The AsyncPool Interface
@@ -39,6 +45,8 @@ public interface AsyncPool<T> {
      *
      * Callbacks will be executed in FIFO order as objects are returned to the pool (
      * either by other users, or as new object creation completes) or as timeout expires.
+     * A get does not take an idle object while earlier callbacks are still waiting,
+     * it waits behind them.
      *
      * After finishing with the object, the user must return the object to the pool
      * with <code>put</code>.
@@ -49,9 +57,107 @@ public interface AsyncPool<T> {
      */
     Cancellable get(Callback<T> callback);
 
+    /**
+     * Get an object from the pool, waiting at most the given time.
+     *
+     * Behaves like {@link #get(Callback)}, except that a waiter which is still waiting
+     * when the timeout elapses is removed from the pool and its callback fails with an
+     * {@link com.xqbase.apool.exceptions.AcquireTimeoutException}. The timeout may be
+     * rounded up to the resolution of the pool's timer.
+     *
+     * @param callback the callback to receive the checked out object
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return A {@link Cancellable} which, if invoked before the callback, will cancel
+     * the pending get request.
+     */
+    Cancellable get(Callback<T> callback, long timeout, TimeUnit unit);
+
+    /**
+     * Acquire an object from the pool.
+     *
+     * Behaves like {@link #get(Callback)}. If an idle object is available the returned
+     * stage is already completed. Cancelling its {@link java.util.concurrent.CompletableFuture}
+     * removes the pending request from the pool. The object is the caller's once the
+     * stage completes, a dependent stage must put it back even when it fails.
+     *
+     * @return A {@link CompletionStage} of the checked out object.
+     */
+    default CompletionStage<T> acquire() {
+        AcquireFuture<T> future = new AcquireFuture<>(this);
+        future.setCancellable(get(future));
+        return future;
+    }
+
+    /**
+     * Acquire an object from the pool, waiting at most the given time.
+     *
+     * Behaves like {@link #get(Callback, long, TimeUnit)}, the stage fails with an
+     * {@link com.xqbase.apool.exceptions.AcquireTimeoutException} on timeout.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return A {@link CompletionStage} of the checked out object.
+     */
+    default CompletionStage<T> acquire(long timeout, TimeUnit unit) {
+        AcquireFuture<T> future = new AcquireFuture<>(this);
+        future.setCancellable(get(future, timeout, unit));
+        return future;
+    }
+
+    /**
+     * Acquire a {@link Lease} on an object from the pool.
+     *
+     * Behaves like {@link #acquire()}. The lease returns the object exactly once, however
+     * often it is released or disposed, and is tracked by the pool's {@link LeakDetector}.
+     * A dependent stage must close the lease even when it fails, e.g. with
+     * try-with-resources around the work on the object.
+     *
+     * @return A {@link CompletionStage} of the lease.
+     */
+    default CompletionStage<Lease<T>> acquireLease() {
+        LeaseFuture<T> future = new LeaseFuture<>(this);
+        future.setCancellable(get(future));
+        return future;
+    }
+
+    /**
+     * Acquire a {@link Lease} on an object from the pool, waiting at most the given time.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return A {@link CompletionStage} of the lease.
+     */
+    default CompletionStage<Lease<T>> acquireLease(long timeout, TimeUnit unit) {
+        LeaseFuture<T> future = new LeaseFuture<>(this);
+        future.setCancellable(get(future, timeout, unit));
+        return future;
+    }
+
+    /**
+     * Get the {@link LeakDetector} which tracks the leases of this pool.
+     *
+     * @return the leak detector or null if leases are not tracked.
+     */
+    default LeakDetector getLeakDetector() {
+        return null;
+    }
+
+    /**
+     * Get a {@link Flow.Publisher} of leases on the pool's objects. Each subscriber keeps
+     * at most as many gets pending as it requested, and at most the pool's max size, and
+     * must release every lease it receives.
+     *
+     * @return A publisher of {@link Lease}s.
+     */
+    default Flow.Publisher<Lease<T>> leases() {
+        return new LeasePublisher<>(this, Math.max(1, getMaxPoolSize()));
+    }
+
     /**
      * Return a previously checked out object to the pool. It is an error to return an object
-     * to the pool that is not currently checked out from the pool.
+     * to the pool that is not currently checked out from the pool. Objects are told apart
+     * by identity, not by equals.
      *
      * @param obj the object to be returned.
      */
@@ -84,10 +190,32 @@ public interface AsyncPool<T> {
 
     /**
      * Get a snapshot of pool statistics. The specific statistics are described in
-     * {@link PoolStats}. Calling getStats will reset any 'latched' statistics.
+     * {@link PoolStats}. The totals are cumulative since the pool started, and the rates
+     * are taken over sliding windows which move on by themselves, so calling getStats
+     * resets nothing and any number of callers may poll it.
      *
      * @return An {@link PoolStats} object representing the current pool
      * statistics.
      */
     PoolStats getStats();
+
+    /**
+     * Get the max pool size without a {@link PoolStats} snapshot. The pool implementations
+     * read their bound, this default takes it from a snapshot.
+     *
+     * @return the max pool size.
+     */
+    default int getMaxPoolSize() {
+        return getStats().getMaxPoolSize();
+    }
+
+    /**
+     * Hand the statistics to a visitor one value at a time. The pool implementations
+     * stream them without building a {@link PoolStats} snapshot, this default walks one.
+     *
+     * @param visitor the visitor.
+     */
+    default void visitStats(StatsVisitor visitor) {
+        StatsVisitor.visit(getStats(), visitor);
+    }
 }
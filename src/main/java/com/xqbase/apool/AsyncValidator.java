@@ -0,0 +1,19 @@
+package com.xqbase.apool;
+
+import com.xqbase.apool.callback.Callback;
+
+/**
+ * Validate pool objects asynchronously, e.g. with a ping which costs a round trip.
+ *
+ * @author Tony He
+ */
+public interface AsyncValidator<T> {
+
+    /**
+     * Validate the pool object.
+     *
+     * @param obj the pool object
+     * @param callback {@link Callback} invoked with true if valid otherwise false
+     */
+    void validate(T obj, Callback<Boolean> callback);
+}
@@ -38,6 +38,16 @@ public interface CreateLatch {
      */
     Collection<Task> cancelPendingTasks();
 
+    /**
+     * Tell the given listener about the creates this latch holds back. The pool passes
+     * its own listener on, a latch which never holds a create back ignores it.
+     *
+     * @param listener the listener.
+     */
+    default void setListener(PoolListener<?> listener) {
+
+    }
+
     /**
      * The minimum scheduling unit to apply rate control.
      */
@@ -0,0 +1,153 @@
+package com.xqbase.apool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Report {@link Lease}s held longer than a threshold. Only a sampled fraction of leases
+ * is tracked, and only those pay for recording the stack of the acquiring thread, so
+ * the cost stays near zero at a low sample rate. Each leak is reported once.
+ *
+ * A tracked lease is only weakly referenced, so a lease which is dropped without being
+ * returned is collected, and then reported and forgotten rather than tracked forever.
+ *
+ * @author Tony He
+ */
+public class LeakDetector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeakDetector.class);
+
+    /**
+     * A tracked lease, the exception is where it was acquired.
+     */
+    static final class Record extends WeakReference<Lease<?>> {
+
+        private final long acquireTime = System.currentTimeMillis();
+        private final Exception acquired = new Exception("Lease acquired here");
+        private volatile boolean reported = false;
+
+        Record(Lease<?> lease, ReferenceQueue<Lease<?>> collected) {
+            super(lease, collected);
+        }
+    }
+
+    private final String name;
+    private final double sampleRate;
+    private final long threshold;
+    private final Set<Record> records = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<Lease<?>> collected = new ReferenceQueue<>();
+    private final ScheduledFuture<?> scanFuture;
+
+    /**
+     * Construct a leak detector which scans the tracked leases every threshold.
+     *
+     * @param name the name used in the reports, usually the pool's name.
+     * @param sampleRate the fraction of leases to track, from 0 to 1.
+     * @param threshold how long a lease may be held, in milliseconds.
+     * @param executor the executor which runs the scans.
+     */
+    public LeakDetector(String name, double sampleRate, long threshold, ScheduledExecutorService executor) {
+        if (sampleRate < 0 || sampleRate > 1 || threshold <= 0) {
+            throw new IllegalArgumentException("Invalid sample rate " + sampleRate + " threshold " + threshold);
+        }
+        this.name = name;
+        this.sampleRate = sampleRate;
+        this.threshold = threshold;
+        this.scanFuture = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, threshold, threshold, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start tracking a lease if it is sampled.
+     *
+     * @param lease the lease.
+     * @return the record of the lease or null if it is not tracked.
+     */
+    Record track(Lease<?> lease) {
+        if (sampleRate == 0 || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return null;
+        }
+        Record record = new Record(lease, collected);
+        records.add(record);
+        return record;
+    }
+
+    /**
+     * Stop tracking a returned lease.
+     *
+     * @param record the record of the lease.
+     */
+    void untrack(Record record) {
+        records.remove(record);
+        if (record.reported) {
+            LOGGER.info(name + " lease reported as leaked was returned after "
+                    + (System.currentTimeMillis() - record.acquireTime) + "ms");
+        }
+    }
+
+    /**
+     * Get the number of tracked leases which are held longer than the threshold.
+     *
+     * @return the number of leaked leases.
+     */
+    public int getLeakCount() {
+        long now = System.currentTimeMillis();
+        dropCollected(now);
+        int count = 0;
+        for (Record record : records) {
+            if (now - record.acquireTime > threshold) {
+                count ++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stop scanning.
+     */
+    public void close() {
+        scanFuture.cancel(false);
+    }
+
+    private void scan() {
+        long now = System.currentTimeMillis();
+        dropCollected(now);
+        for (Record record : records) {
+            long held = now - record.acquireTime;
+            if (held > threshold && !record.reported) {
+                record.reported = true;
+                LOGGER.warn(name + " lease held for " + held + "ms, longer than " + threshold + "ms",
+                        record.acquired);
+            }
+        }
+    }
+
+    /**
+     * Report and stop tracking the leases which were collected without being returned.
+     *
+     * @param now the current time in milliseconds.
+     */
+    private void dropCollected(long now) {
+        for (Reference<? extends Lease<?>> ref = collected.poll(); ref != null; ref = collected.poll()) {
+            Record record = (Record) ref;
+            if (records.remove(record)) {
+                LOGGER.warn(name + " lease was collected without being returned, "
+                        + (now - record.acquireTime) + "ms after it was acquired", record.acquired);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.xqbase.apool;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An object checked out of a pool, which knows how to go back. Releasing or
+ * disposing a lease more than once has no effect, so it is safe to use it with
+ * try-with-resources and still release it early. If the pool has a {@link LeakDetector},
+ * a sampled lease is tracked until it is returned, or collected without being returned.
+ *
+ * @author Tony He
+ */
+public class Lease<T> implements AutoCloseable {
+
+    private final AsyncPool<T> pool;
+    private final T obj;
+    private final AtomicBoolean returned = new AtomicBoolean();
+    private final LeakDetector detector;
+    private final LeakDetector.Record record;
+
+    public Lease(AsyncPool<T> pool, T obj) {
+        this.pool = pool;
+        this.obj = obj;
+        this.detector = pool.getLeakDetector();
+        this.record = detector != null ? detector.track(this) : null;
+    }
+
+    /**
+     * Get the leased object.
+     *
+     * @return the pool object.
+     */
+    public T get() {
+        return obj;
+    }
+
+    /**
+     * Return the object to the pool.
+     */
+    public void release() {
+        if (returned.compareAndSet(false, true)) {
+            untrack();
+            pool.put(obj);
+        }
+    }
+
+    /**
+     * Dispose of the object, e.g. because it did not operate correctly.
+     */
+    public void dispose() {
+        if (returned.compareAndSet(false, true)) {
+            untrack();
+            pool.dispose(obj);
+        }
+    }
+
+    /**
+     * Whether the lease has been released or disposed.
+     *
+     * @return true if returned.
+     */
+    public boolean isReturned() {
+        return returned.get();
+    }
+
+    private void untrack() {
+        if (record != null) {
+            detector.untrack(record);
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+}
@@ -0,0 +1,189 @@
+package com.xqbase.apool;
+
+import com.xqbase.apool.callback.Callback;
+import com.xqbase.apool.util.Cancellable;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Publisher} of leases on pool objects. Each subscriber's demand turns
+ * into pending gets, at most as many as requested and at most maxPending at a time,
+ * so the capacity of the pool is the backpressure of the stream. The subscriber
+ * releases each lease when done with it.
+ *
+ * The stream does not complete, it fails if a get fails, e.g. when the pool shuts down.
+ * Cancelling cancels the pending gets, and objects which still arrive go back to the pool.
+ *
+ * @author Tony He
+ */
+public class LeasePublisher<T> implements Flow.Publisher<Lease<T>> {
+
+    private final AsyncPool<T> pool;
+    private final int maxPending;
+
+    public LeasePublisher(AsyncPool<T> pool, int maxPending) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("Invalid max pending gets " + maxPending);
+        }
+        this.pool = pool;
+        this.maxPending = maxPending;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Lease<T>> subscriber) {
+        Objects.requireNonNull(subscriber);
+        subscriber.onSubscribe(new LeaseSubscription(subscriber));
+    }
+
+    private class LeaseSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super Lease<T>> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        // Gets issued but not emitted yet, whether they are still waiting or have arrived.
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Queue<T> arrived = new ConcurrentLinkedQueue<>();
+        private final Set<Acquire> acquires = ConcurrentHashMap.newKeySet();
+        // Serializes the signals to the subscriber, only one thread drains at a time.
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile Throwable error = null;
+        private boolean done = false;
+
+        LeaseSubscription(Flow.Subscriber<? super Lease<T>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Non-positive request " + n);
+            } else {
+                long r;
+                do {
+                    r = requested.get();
+                } while (!requested.compareAndSet(r, r + n < 0 ? Long.MAX_VALUE : r + n));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                if (cancelled) {
+                    clear();
+                } else {
+                    emit();
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void emit() {
+            long r = requested.get();
+            long e = 0;
+            T obj;
+            while (e != r && !cancelled && (obj = arrived.poll()) != null) {
+                pending.decrementAndGet();
+                e ++;
+                subscriber.onNext(new Lease<>(pool, obj));
+            }
+            if (e > 0 && r != Long.MAX_VALUE) {
+                requested.addAndGet(-e);
+            }
+
+            Throwable ex = error;
+            if (ex != null && !done) {
+                done = true;
+                cancelled = true;
+                clear();
+                subscriber.onError(ex);
+                return;
+            }
+
+            // Keep as many gets pending as requested, within maxPending.
+            while (!cancelled && error == null) {
+                int p = pending.get();
+                if (p >= maxPending || p >= requested.get()) {
+                    break;
+                }
+                pending.incrementAndGet();
+                Acquire acquire = new Acquire();
+                acquires.add(acquire);
+                acquire.setCancellable(pool.get(acquire));
+                if (acquire.completed) {
+                    // Served or failed right away, e.g. by a stopped pool. Its drain only
+                    // counted a missed signal, so the drain loop runs emit again to pass it on.
+                    break;
+                }
+            }
+        }
+
+        private void clear() {
+            for (Acquire acquire : acquires) {
+                acquire.cancel();
+            }
+            for (T obj; (obj = arrived.poll()) != null;) {
+                pool.put(obj);
+            }
+        }
+
+        /**
+         * One pending get.
+         */
+        private class Acquire implements Callback<T> {
+
+            private volatile Cancellable cancellable;
+            private volatile boolean completed = false;
+
+            void setCancellable(Cancellable cancellable) {
+                this.cancellable = cancellable;
+            }
+
+            void cancel() {
+                Cancellable innerCancellable = cancellable;
+                if (innerCancellable != null && innerCancellable.cancel()) {
+                    acquires.remove(this);
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                completed = true;
+                acquires.remove(this);
+                pending.decrementAndGet();
+                if (!cancelled) {
+                    error = e;
+                }
+                drain();
+            }
+
+            @Override
+            public void onSuccess(T result) {
+                completed = true;
+                acquires.remove(this);
+                // Drain returns it to the pool if we got cancelled meanwhile.
+                arrived.offer(result);
+                drain();
+            }
+        }
+    }
+}
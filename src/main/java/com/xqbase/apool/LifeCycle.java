@@ -32,6 +32,40 @@ public interface LifeCycle<T> {
      */
     boolean validatePut(T obj);
 
+    /**
+     * Whether the pool should validate through {@link #validateGet(Object, Callback)} and
+     * {@link #validatePut(Object, Callback)}. A life cycle which overrides either of them
+     * returns true, otherwise the pool calls {@link #validateGet(Object)} and
+     * {@link #validatePut(Object)} inline and never allocates a callback for them.
+     *
+     * @return true to validate asynchronously, false by default.
+     */
+    default boolean isAsyncValidation() {
+        return false;
+    }
+
+    /**
+     * Validate the pool object before it is handed out, without blocking the caller.
+     * A pool only validates through this variant if {@link #isAsyncValidation()}.
+     *
+     * @param obj the pool object
+     * @param callback {@link Callback} invoked with true if valid otherwise false
+     */
+    default void validateGet(T obj, Callback<Boolean> callback) {
+        callback.onSuccess(validateGet(obj));
+    }
+
+    /**
+     * Validate the pool object when it is returned, without blocking the caller.
+     *
+     * @param obj the pool object
+     * @param callback {@link Callback} invoked with true if valid otherwise false
+     * @see #validateGet(Object, Callback)
+     */
+    default void validatePut(T obj, Callback<Boolean> callback) {
+        callback.onSuccess(validatePut(obj));
+    }
+
     /**
      * Destroy the pool object.
      *
@@ -0,0 +1,251 @@
+package com.xqbase.apool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hooks into the events of a pool, e.g. for tracing or custom metrics. Every hook does
+ * nothing by default, so a listener only overrides what it needs.
+ *
+ * Pools call the hooks unconditionally and default to {@link #noop()}. As long as no
+ * other listener is set, each call site only ever sees the no-op listener. The hooks run
+ * on the pool's threads, often on the hot path, and must be quick. Pools wrap a listener
+ * with {@link #guard(String, PoolListener)}, so a hook which throws is logged and the
+ * pool carries on.
+ *
+ * @author Tony He
+ */
+public interface PoolListener<T> {
+
+    /**
+     * Get the listener which ignores every event.
+     *
+     * @return the no-op listener.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> PoolListener<T> noop() {
+        return (PoolListener<T>) Noop.INSTANCE;
+    }
+
+    /**
+     * Wrap a listener so that its hooks never throw into the pool, a failed hook is logged.
+     *
+     * @param name the name of the pool, for the log.
+     * @param listener the listener.
+     * @return the guarded listener, or the no-op listener itself.
+     */
+    static <T> PoolListener<T> guard(String name, PoolListener<T> listener) {
+        if (listener == Noop.INSTANCE || listener instanceof Guarded) {
+            return listener;
+        }
+        return new Guarded<>(name, listener);
+    }
+
+    /**
+     * An object was checked out.
+     *
+     * @param obj the pool object.
+     */
+    default void onBorrow(T obj) {
+    }
+
+    /**
+     * An object was put back or disposed of.
+     *
+     * @param obj the pool object.
+     */
+    default void onReturn(T obj) {
+    }
+
+    /**
+     * A create was held back by the {@link CreateLatch}, to run after the rate-limit period.
+     *
+     * @param pending the number of creates held back, including this one.
+     */
+    default void onCreateDelayed(int pending) {
+    }
+
+    /**
+     * A lifecycle create started.
+     */
+    default void onCreateStart() {
+    }
+
+    /**
+     * A lifecycle create succeeded.
+     *
+     * @param obj the new pool object.
+     * @param nanos how long the create took.
+     */
+    default void onCreateSuccess(T obj, long nanos) {
+    }
+
+    /**
+     * A lifecycle create failed.
+     *
+     * @param e the error.
+     */
+    default void onCreateFailure(Throwable e) {
+    }
+
+    /**
+     * An object is being destroyed.
+     *
+     * @param obj the pool object.
+     * @param bad whether it is destroyed as bad.
+     */
+    default void onDestroy(T obj, boolean bad) {
+    }
+
+    /**
+     * A get found no idle object and started waiting.
+     */
+    default void onWaiterEnqueue() {
+    }
+
+    /**
+     * A waiting get timed out.
+     *
+     * @param waited how long it waited, in milliseconds.
+     */
+    default void onWaiterTimeout(long waited) {
+    }
+
+    /**
+     * The pool started shutting down.
+     */
+    default void onShutdownStart() {
+    }
+
+    /**
+     * The pool finished shutting down.
+     */
+    default void onShutdownComplete() {
+    }
+
+    /**
+     * The no-op listener, a class of its own so that it is the only receiver type the JIT sees.
+     */
+    final class Noop implements PoolListener<Object> {
+
+        private static final Noop INSTANCE = new Noop();
+
+        private Noop() {
+        }
+    }
+
+    /**
+     * A listener whose hooks log the failures of the hooks of another.
+     */
+    final class Guarded<T> implements PoolListener<T> {
+
+        private static final Logger LOGGER = LoggerFactory.getLogger(PoolListener.class);
+
+        private final String name;
+        private final PoolListener<T> listener;
+
+        private Guarded(String name, PoolListener<T> listener) {
+            this.name = name;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onBorrow(T obj) {
+            try {
+                listener.onBorrow(obj);
+            } catch (Exception e) {
+                LOGGER.warn(name + " listener failed on onBorrow", e);
+            }
+        }
+
+        @Override
+        public void onReturn(T obj) {
+            try {
+                listener.onReturn(obj);
+            } catch (Exception e) {
+                LOGGER.warn(name + " listener failed on onReturn", e);
+            }
+        }
+
+        @Override
+        public void onCreateDelayed(int pending) {
+            try {
+                listener.onCreateDelayed(pending);
+            } catch (Exception e) {
+                LOGGER.warn(name + " listener failed on onCreateDelayed", e);
+            }
+        }
+
+        @Override
+        public void onCreateStart() {
+            try {
+                listener.onCreateStart();
+            } catch (Exception e) {
+                LOGGER.warn(name + " listener failed on onCreateStart", e);
+            }
+        }
+
+        @Override
+        public void onCreateSuccess(T obj, long nanos) {
+            try {
+                listener.onCreateSuccess(obj, nanos);
+            } catch (Exception e) {
+                LOGGER.warn(name + " listener failed on onCreateSuccess", e);
+            }
+        }
+
+        @Override
+        public void onCreateFailure(Throwable error) {
+            try {
+                listener.onCreateFailure(error);
+            } catch (Exception e) {
+                LOGGER.warn(name + " listener failed on onCreateFailure", e);
+            }
+        }
+
+        @Override
+        public void onDestroy(T obj, boolean bad) {
+            try {
+                listener.onDestroy(obj, bad);
+            } catch (Exception e) {
+                LOGGER.warn(name + " listener failed on onDestroy", e);
+            }
+        }
+
+        @Override
+        public void onWaiterEnqueue() {
+            try {
+                listener.onWaiterEnqueue();
+            } catch (Exception e) {
+                LOGGER.warn(name + " listener failed on onWaiterEnqueue", e);
+            }
+        }
+
+        @Override
+        public void onWaiterTimeout(long waited) {
+            try {
+                listener.onWaiterTimeout(waited);
+            } catch (Exception e) {
+                LOGGER.warn(name + " listener failed on onWaiterTimeout", e);
+            }
+        }
+
+        @Override
+        public void onShutdownStart() {
+            try {
+                listener.onShutdownStart();
+            } catch (Exception e) {
+                LOGGER.warn(name + " listener failed on onShutdownStart", e);
+            }
+        }
+
+        @Override
+        public void onShutdownComplete() {
+            try {
+                listener.onShutdownComplete();
+            } catch (Exception e) {
+                LOGGER.warn(name + " listener failed on onShutdownComplete", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.xqbase.apool.callback;
+
+import com.xqbase.apool.AsyncPool;
+import com.xqbase.apool.util.Cancellable;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link CompletableFuture} which receives an object checked out of a pool.
+ *
+ * Cancelling it removes the pending get from the pool. If the object was already on
+ * its way when the future got cancelled, it is returned to the pool, so it never leaks.
+ * Once the future completes the object is the caller's, and a dependent stage must put
+ * it back even when the stage fails.
+ *
+ * @author Tony He
+ */
+public class AcquireFuture<T> extends CompletableFuture<T> implements Callback<T> {
+
+    private final AsyncPool<T> pool;
+    private volatile Cancellable cancellable;
+
+    public AcquireFuture(AsyncPool<T> pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Set the {@link Cancellable} of the pending get, null if it completed right away.
+     *
+     * @param cancellable the cancellable.
+     */
+    public void setCancellable(Cancellable cancellable) {
+        this.cancellable = cancellable;
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        completeExceptionally(e);
+    }
+
+    @Override
+    public void onSuccess(T result) {
+        if (!complete(result)) {
+            pool.put(result);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        Cancellable innerCancellable = cancellable;
+        if (innerCancellable != null) {
+            innerCancellable.cancel();
+        }
+        return super.cancel(mayInterruptIfRunning);
+    }
+}
@@ -0,0 +1,62 @@
+package com.xqbase.apool.callback;
+
+import com.xqbase.apool.AsyncPool;
+import com.xqbase.apool.Lease;
+import com.xqbase.apool.util.Cancellable;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link CompletableFuture} which receives a {@link Lease} on an object checked out of a pool.
+ *
+ * Like {@link AcquireFuture}, cancelling it removes the pending get from the pool, and
+ * an object which was already on its way is returned to the pool. Once the future
+ * completes the lease is the caller's, and a dependent stage must close it even when
+ * the stage fails, e.g. with try-with-resources around the work on the object.
+ *
+ * @author Tony He
+ */
+public class LeaseFuture<T> extends CompletableFuture<Lease<T>> implements Callback<T> {
+
+    private final AsyncPool<T> pool;
+    private volatile Cancellable cancellable;
+
+    public LeaseFuture(AsyncPool<T> pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Set the {@link Cancellable} of the pending get, null if it completed right away.
+     *
+     * @param cancellable the cancellable.
+     */
+    public void setCancellable(Cancellable cancellable) {
+        this.cancellable = cancellable;
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        completeExceptionally(e);
+    }
+
+    @Override
+    public void onSuccess(T result) {
+        if (isDone()) {
+            pool.put(result);
+            return;
+        }
+        Lease<T> lease = new Lease<>(pool, result);
+        if (!complete(lease)) {
+            lease.release();
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        Cancellable innerCancellable = cancellable;
+        if (innerCancellable != null) {
+            innerCancellable.cancel();
+        }
+        return super.cancel(mayInterruptIfRunning);
+    }
+}
@@ -21,6 +21,10 @@ public class ChannelPoolFactoryImpl implements ChannelPoolFactory {
     private final long idleTimeout;
     private final Bootstrap bootstrap;
     private final AsyncPoolImpl.Strategy strategy;
+    private final long maxLifetime;
+    private final long lifetimeJitter;
+    private final long autoScaleTargetWait;
+    private final long autoScalePeriod;
 
     public ChannelPoolFactoryImpl(int maxSize,
                 int minSize,
@@ -28,17 +32,46 @@ public class ChannelPoolFactoryImpl implements ChannelPoolFactory {
                 long idleTimeout,
                 Bootstrap bootstrap,
                 AsyncPoolImpl.Strategy strategy) {
+        this(maxSize, minSize, maxWaitersSize, idleTimeout, bootstrap, strategy, 0, 0);
+    }
+
+    public ChannelPoolFactoryImpl(int maxSize,
+                int minSize,
+                int maxWaitersSize,
+                long idleTimeout,
+                Bootstrap bootstrap,
+                AsyncPoolImpl.Strategy strategy,
+                long maxLifetime,
+                long lifetimeJitter) {
+        this(maxSize, minSize, maxWaitersSize, idleTimeout, bootstrap, strategy, maxLifetime, lifetimeJitter, 0, 0);
+    }
+
+    // Pools size themselves between minSize and maxSize if autoScalePeriod is positive.
+    public ChannelPoolFactoryImpl(int maxSize,
+                int minSize,
+                int maxWaitersSize,
+                long idleTimeout,
+                Bootstrap bootstrap,
+                AsyncPoolImpl.Strategy strategy,
+                long maxLifetime,
+                long lifetimeJitter,
+                long autoScaleTargetWait,
+                long autoScalePeriod) {
         this.maxSize = maxSize;
         this.minSize = minSize;
         this.maxWaitersSize = maxWaitersSize;
         this.idleTimeout = idleTimeout;
         this.bootstrap = bootstrap;
         this.strategy = strategy;
+        this.maxLifetime = maxLifetime;
+        this.lifetimeJitter = lifetimeJitter;
+        this.autoScaleTargetWait = autoScaleTargetWait;
+        this.autoScalePeriod = autoScalePeriod;
     }
 
     @Override
     public AsyncPool<Channel> getPool(SocketAddress address) {
-        return new AsyncPoolImpl<>(address.toString() + " Connection Pool",
+        AsyncPoolImpl<Channel> pool = new AsyncPoolImpl<>(address.toString() + " Connection Pool",
                 maxSize,
                 idleTimeout,
                 new ChannelPoolLifeCycle(address, null, bootstrap),
@@ -48,5 +81,10 @@ public class ChannelPoolFactoryImpl implements ChannelPoolFactory {
                 minSize,
                 new SimpleCreateLatch(0, 0, null, 0),
                 strategy);
+        pool.setMaxLifetime(maxLifetime, lifetimeJitter);
+        if (autoScalePeriod > 0) {
+            pool.setAutoScaling(autoScaleTargetWait, autoScalePeriod);
+        }
+        return pool;
     }
 }
@@ -3,25 +3,36 @@ package com.xqbase.apool.example;
 import com.xqbase.apool.AsyncPool;
 import com.xqbase.apool.callback.Callback;
 import com.xqbase.apool.callback.Callbacks;
+import com.xqbase.apool.impl.AsyncPoolImpl;
+import com.xqbase.apool.jmx.AsyncPoolManagement;
 import com.xqbase.apool.stats.PoolStats;
 import com.xqbase.apool.util.None;
 import io.netty.channel.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 /**
- * This manager maintains a collection of channel pools.
+ * This manager maintains a collection of channel pools. After {@link #registerMBeans()}
+ * it registers itself and its pools as MBeans, under the names {@code com.xqbase.apool:type=ChannelPoolManager,name=<name>}
+ * and {@code com.xqbase.apool:type=AsyncPool,manager=<name>,name=<pool name>}.
  *
  * @author Tony He
  */
-public class ChannelPoolManager {
+public class ChannelPoolManager implements ChannelPoolManagerMXBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ChannelPoolManager.class);
 
@@ -35,12 +46,37 @@ public class ChannelPoolManager {
 
     private final ChannelPoolFactory poolFactory;
     private final String name;
+    // Guarded by mutex, null if the manager and its pools are not registered as MBeans.
+    private ObjectName mbeanName = null;
 
     public ChannelPoolManager(ChannelPoolFactory poolFactory, String name) {
         this.poolFactory = poolFactory;
         this.name = name;
     }
 
+    /**
+     * Register the manager as an MBean, and each pool it creates from now on next to it.
+     * This must be called before the first pool is created.
+     */
+    public void registerMBeans() {
+        synchronized (mutex) {
+            if (state != State.RUNNING) {
+                throw new IllegalStateException(name + " is " + state);
+            }
+            if (mbeanName != null || !pool.isEmpty()) {
+                throw new IllegalStateException(name + " must register its MBeans once, before it creates pools");
+            }
+            try {
+                ObjectName objectName = new ObjectName(AsyncPoolManagement.DOMAIN + ":type=ChannelPoolManager,name="
+                        + ObjectName.quote(name));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+                mbeanName = objectName;
+            } catch (JMException e) {
+                LOGGER.warn("Failed to register MBean of " + name, e);
+            }
+        }
+    }
+
     /**
      * Get the channel pool associated with the socket address.
      *
@@ -59,8 +95,11 @@ public class ChannelPoolManager {
             }
 
             channelPool = pool.get(address);
-            if (pool == null) {
+            if (channelPool == null) {
                 channelPool = poolFactory.getPool(address);
+                if (mbeanName != null && channelPool instanceof AsyncPoolImpl) {
+                    registerMBean((AsyncPoolImpl<Channel>) channelPool);
+                }
                 channelPool.start();
                 pool.put(address, channelPool);
             }
@@ -69,6 +108,20 @@ public class ChannelPoolManager {
         return channelPool;
     }
 
+    /**
+     * Have a new pool register its MBean when it starts.
+     *
+     * @param channelPool the pool.
+     */
+    private void registerMBean(AsyncPoolImpl<Channel> channelPool) {
+        try {
+            channelPool.setMBeanName(new ObjectName(AsyncPoolManagement.DOMAIN + ":type=AsyncPool,manager="
+                    + ObjectName.quote(name) + ",name=" + ObjectName.quote(channelPool.getName())));
+        } catch (JMException e) {
+            LOGGER.warn("Failed to name MBean of " + channelPool.getName(), e);
+        }
+    }
+
     /**
      * Shutdown the all the channel pools under this manager.
      */
@@ -94,6 +147,7 @@ public class ChannelPoolManager {
                 synchronized (mutex) {
                     state = State.SHUT_DOWN;
                 }
+                unregisterMBean();
                 callback.onError(e);
             }
 
@@ -102,6 +156,7 @@ public class ChannelPoolManager {
                 synchronized (mutex) {
                     state = State.SHUT_DOWN;
                 }
+                unregisterMBean();
                 callback.onSuccess(None.none());
             }
         }, pools.size());
@@ -111,6 +166,17 @@ public class ChannelPoolManager {
         }
     }
 
+    /**
+     * Get a live, read only view of the pools, e.g. for an
+     * {@link com.xqbase.apool.stats.OpenMetricsExporter} which streams their statistics
+     * instead of building a map of snapshots like {@link #getStats()}.
+     *
+     * @return the pools.
+     */
+    public Collection<AsyncPool<Channel>> getPools() {
+        return Collections.unmodifiableCollection(pool.values());
+    }
+
     /**
      * Get statistics for each pool. The map keys represent pool name,
      * while the value is the corresponding {@link com.xqbase.apool.stats.AsyncPoolStats} object.
@@ -125,11 +191,80 @@ public class ChannelPoolManager {
         return map;
     }
 
+    private void unregisterMBean() {
+        ObjectName objectName;
+        synchronized (mutex) {
+            objectName = mbeanName;
+            mbeanName = null;
+        }
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Failed to unregister MBean of " + name, e);
+        }
+    }
+
     /**
      * Get the name of the manager.
      */
+    @Override
     public String getName() {
         return name;
     }
 
+    @Override
+    public int getPoolCount() {
+        return pool.size();
+    }
+
+    @Override
+    public String[] getPoolNames() {
+        List<String> names = new ArrayList<>();
+        for (AsyncPool<Channel> p : pool.values()) {
+            names.add(p.getName());
+        }
+        return names.toArray(new String[0]);
+    }
+
+    @Override
+    public int cancelWaiters() {
+        int count = 0;
+        for (AsyncPool<Channel> p : pool.values()) {
+            for (Callback<Channel> waiter : p.cancelWaiters()) {
+                waiter.onError(new CancellationException(p.getName() + " cancelled the waiter through JMX"));
+                count ++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int shrinkIdle() {
+        int count = 0;
+        for (AsyncPool<Channel> p : pool.values()) {
+            if (p instanceof AsyncPoolImpl) {
+                count += ((AsyncPoolImpl<Channel>) p).shrinkIdle();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int resize(int minSize, int maxSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size " + minSize + " to " + maxSize);
+        }
+        int count = 0;
+        for (AsyncPool<Channel> p : pool.values()) {
+            if (p instanceof AsyncPoolImpl) {
+                ((AsyncPoolImpl<Channel>) p).resize(minSize, maxSize);
+                count ++;
+            }
+        }
+        return count;
+    }
+
 }
@@ -0,0 +1,41 @@
+package com.xqbase.apool.example;
+
+/**
+ * The management interface of a {@link ChannelPoolManager}. Each of its pools which is
+ * an {@link com.xqbase.apool.impl.AsyncPoolImpl} has its own
+ * {@link com.xqbase.apool.jmx.AsyncPoolMXBean} next to it.
+ *
+ * @author Tony He
+ */
+public interface ChannelPoolManagerMXBean {
+
+    String getName();
+
+    int getPoolCount();
+
+    String[] getPoolNames();
+
+    /**
+     * Fail all waiters of all pools.
+     *
+     * @return the number of failed waiters.
+     */
+    int cancelWaiters();
+
+    /**
+     * Destroy the idle objects above the min size of all pools now.
+     *
+     * @return the number of destroyed objects.
+     */
+    int shrinkIdle();
+
+    /**
+     * Change the bounds of all pools. The pools created later keep the size their
+     * factory gives them.
+     *
+     * @param minSize the new min size.
+     * @param maxSize the new max size.
+     * @return the number of resized pools.
+     */
+    int resize(int minSize, int maxSize);
+}
@@ -0,0 +1,15 @@
+package com.xqbase.apool.exceptions;
+
+/**
+ * Represents an exception that a waiter timed out before a pool object became available.
+ *
+ * @author Tony He
+ */
+public class AcquireTimeoutException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public AcquireTimeoutException(String message) {
+        super(message);
+    }
+}
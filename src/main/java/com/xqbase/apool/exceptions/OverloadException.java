@@ -0,0 +1,15 @@
+package com.xqbase.apool.exceptions;
+
+/**
+ * Represents an exception that a waiter was shed because the pool is overloaded.
+ *
+ * @author Tony He
+ */
+public class OverloadException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public OverloadException(String message) {
+        super(message);
+    }
+}
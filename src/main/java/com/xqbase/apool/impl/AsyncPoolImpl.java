@@ -1,21 +1,36 @@
 package com.xqbase.apool.impl;
 
 import com.xqbase.apool.AsyncPool;
+import com.xqbase.apool.AsyncValidator;
 import com.xqbase.apool.CreateLatch;
+import com.xqbase.apool.LeakDetector;
 import com.xqbase.apool.LifeCycle;
+import com.xqbase.apool.PoolListener;
 import com.xqbase.apool.callback.Callback;
 import com.xqbase.apool.callback.SimpleCallback;
+import com.xqbase.apool.exceptions.AcquireTimeoutException;
+import com.xqbase.apool.exceptions.OverloadException;
 import com.xqbase.apool.exceptions.SizeLimitExceededException;
+import com.xqbase.apool.jmx.AsyncPoolManagement;
 import com.xqbase.apool.stats.AsyncPoolStats;
+import com.xqbase.apool.stats.LatencyHistogram;
 import com.xqbase.apool.stats.PoolStats;
+import com.xqbase.apool.stats.RateWindow;
+import com.xqbase.apool.stats.StatsVisitor;
 import com.xqbase.apool.util.Cancellable;
-import com.xqbase.apool.util.LinkedDeque;
+import com.xqbase.apool.util.HashedTimingWheel;
 import com.xqbase.apool.util.None;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The Async Pool Implementation.
@@ -26,39 +41,136 @@ public class AsyncPoolImpl<T> implements AsyncPool<T> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AsyncPoolImpl.class);
 
+    // Resolution and size of the waiter timing wheel.
+    private static final long WAITER_TICK = 10;
+    private static final int WAITER_WHEEL_SIZE = 512;
+    // Size of the idle timeout wheel, its resolution is the idle timeout check frequency.
+    private static final int ENTRY_WHEEL_SIZE = 512;
+    // A waiter moves up one priority class for every this many milliseconds it waited.
+    private static final long DEFAULT_PRIORITY_AGING = 1000;
+    // The weight of the latest period in the demand estimates of predictive creation.
+    private static final double PREDICTION_WEIGHT = 0.3;
+
     // Configured
     private final String poolName;
-    private final int maxSize;
-    private final int minSize;
+    // Written under lock by resize().
+    private volatile int maxSize;
+    private volatile int minSize;
     private final int maxWaiters;
     private final long idleTimeout;
     private final ScheduledExecutorService timeoutExecutor;
     private volatile ScheduledFuture<?> objectTimeoutFuture;
     private final ExecutorService callbackExecutor;
     private final LifeCycle<T> lifeCycle;
+    // Whether the life cycle validates synchronously, then get and put validate inline.
+    private final boolean syncValidation;
     private final CreateLatch createLatch;
     private final Strategy strategy;
 
     private enum State { NOT_YET_STARTED, RUNNING, SHUTTING_DOWN, STOPPED }
     public enum Strategy { LRU, MRU }
-
-    private int poolSize = 0;
-    private final Object lock = new Object();
+    public enum IdleStore { DEQUE, SLOTS }
+    public enum Priority { HIGH, NORMAL, LOW }
+    public enum Discipline { FIFO, CODEL }
+
+    // Written under lock, volatile so that the stats can read it without lock.
+    private volatile int poolSize = 0;
+    // Guarded by lock, the bounds in effect, they move within minSize and maxSize when autoscaling.
+    private int effectiveMaxSize;
+    private int effectiveMinSize;
+    // A j.u.c lock rather than a monitor, so that a virtual thread blocked on it does not pin its carrier.
+    private final ReentrantLock lock = new ReentrantLock();
     private Throwable lastCreateError = null;
 
-    private final Deque<TimedObject<T>> idle = new LinkedList<>();
-    private final LinkedDeque<Callback<T>> waiters = new LinkedDeque<>();
-
-    private State state = State.NOT_YET_STARTED;
+    // Configured before start(), published by the volatile write of state.
+    private ThreadLocal<AffinityList<T>> affinity = null;
+    private IdleStore idleStore = IdleStore.DEQUE;
+    private long maxLifetime = 0;
+    private long lifetimeJitter = 0;
+    private long maxHoldTime = 0;
+    private int maxRetiring = 0;
+    private AsyncValidator<T> validator = null;
+    private long validationInterval = 0;
+    private int validationBatch = 0;
+    private long validationFreshness = 0;
+    private volatile ScheduledFuture<?> validationFuture;
+    private long autoScaleTargetWait = 0;
+    private long autoScalePeriod = 0;
+    private volatile ScheduledFuture<?> autoScaleFuture;
+    private long predictionPeriod = 0;
+    private volatile ScheduledFuture<?> predictionFuture;
+    private volatile LeakDetector leakDetector = null;
+    private ObjectName mbeanName = null;
+    // Volatile since the hooks run on any thread, guarded so that they never throw into the pool.
+    private volatile PoolListener<T> listener = PoolListener.noop();
+    private volatile AsyncPoolManagement management = null;
+
+    // Every live pool object and its entry by identity, the entries are reused for each checkout.
+    private final EntryTable<T> entries = new EntryTable<>();
+    // The idle queue is lock free, so that taking an idle object or returning one
+    // while nobody is waiting never touches the lock. It may hold entries which were
+    // claimed through an affinity list, pollers skip them. Created by start().
+    private IdleQueue<T> idle;
+    // How many entries the idle queue can hold, bounds resize().
+    private int idleCapacity = Integer.MAX_VALUE;
+    // How many returned objects to destroy rather than keep, after resize() lowered the max.
+    private final AtomicInteger overflow = new AtomicInteger();
+    // Guarded by lock, waitersSize mirrors waiters.size() for lock free readers.
+    private final WaiterQueue<T> waiters = new WaiterQueue<>(DEFAULT_PRIORITY_AGING);
+    private volatile int waitersSize = 0;
+    // Guarded by lock, the deadlines of waiters which get with a timeout. The wheel
+    // only ticks while it holds any.
+    private final HashedTimingWheel<TimeTrackingCallback<T>> waiterWheel =
+            new HashedTimingWheel<>(WAITER_TICK, WAITER_WHEEL_SIZE, System.currentTimeMillis());
+    private ScheduledFuture<?> waiterTimeoutFuture = null;
+    // Guarded by lock, one timer per live object for idle timeout and max lifetime.
+    private final long entryTick;
+    private final HashedTimingWheel<TimedObject<T>> entryWheel;
+    // Guarded by lock, the number of replacements being created for retiring objects.
+    private int retiring = 0;
+    // Guarded by lock, the retired objects which are not destroyed yet, they still count in poolSize.
+    private int retired = 0;
+    // Guarded by lock, the number of idle objects being validated in the background.
+    private int validating = 0;
+
+    // Written under lock, read without lock on the fast path.
+    private volatile State state = State.NOT_YET_STARTED;
     private Callback<None> shutdownCallback = null;
 
-    private int totalCreated = 0;
-    private int totalDestroyed = 0;
-    private int totalCreateErrors = 0;
-    private int totalDestroyErrors = 0;
-    private int totalBadDestroyed = 0;
-    private int totalTimeout = 0;
-    private int checkedOut = 0;
+    // Striped, so that counting never contends on the hot path and reading them takes no lock.
+    private final LongAdder totalCreated = new LongAdder();
+    private final LongAdder totalDestroyed = new LongAdder();
+    private final LongAdder totalCreateErrors = new LongAdder();
+    private final LongAdder totalDestroyErrors = new LongAdder();
+    private final LongAdder totalBadDestroyed = new LongAdder();
+    private final LongAdder totalTimeout = new LongAdder();
+    private final AtomicInteger checkedOut = new AtomicInteger();
+    // The entries in the IDLE state, counted up in offerIdle and down wherever an entry is
+    // claimed or removed from idle, so that the stats don't walk the entries.
+    private final AtomicInteger idleObjects = new AtomicInteger();
+    // Lock free, in microseconds.
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final LatencyHistogram createTimes = new LatencyHistogram();
+    private final LatencyHistogram holdTimes = new LatencyHistogram();
+    private final LatencyHistogram destroyTimes = new LatencyHistogram();
+    // Lock free, events per second over the last minute.
+    private final RateWindow acquires = new RateWindow();
+    private final RateWindow creates = new RateWindow();
+    private final RateWindow createErrors = new RateWindow();
+    private final RateWindow timeouts = new RateWindow();
+    private final RateWindow rejects = new RateWindow();
+    // The most objects checked out at once and the longest queueing delay since the last
+    // autoscaling period, the peak is updated racily which is good enough for a heuristic.
+    private volatile int peakCheckedOut = 0;
+    private long peakQueueDelay = -1;
+    // Demand seen since the last prediction period, only tracked for predictive creation.
+    private final LongAdder arrivals = new LongAdder();
+    private final LongAdder holdTimeTotal = new LongAdder();
+    private final LongAdder holdCount = new LongAdder();
+    // Guarded by lock, the smoothed demand estimates and the pool size they call for.
+    private double arrivalRate = 0;
+    private double holdTime = 0;
+    private int predictedSize = 0;
 
     // Construct an Async Pool with {@code Integer.MAX_VALUE} maxWaiters.
     public AsyncPoolImpl(String poolName,
@@ -107,13 +219,18 @@ public class AsyncPoolImpl<T> implements AsyncPool<T> {
         this.poolName = poolName;
         this.maxSize = maxSize;
         this.minSize = minSize;
+        this.effectiveMaxSize = maxSize;
+        this.effectiveMinSize = minSize;
         this.maxWaiters = maxWaiters;
         this.idleTimeout = idleTimeout;
         this.timeoutExecutor = timeoutExecutor;
         this.callbackExecutor = callbackExecutor;
         this.lifeCycle = lifeCycle;
+        this.syncValidation = !lifeCycle.isAsyncValidation();
         this.createLatch = createLatch;
         this.strategy = strategy;
+        this.entryTick = idleTimeout > 0 ? Math.min(idleTimeout, 1000) : 1000;
+        this.entryWheel = new HashedTimingWheel<>(entryTick, ENTRY_WHEEL_SIZE, System.currentTimeMillis());
     }
 
     @Override
@@ -121,242 +238,1166 @@ public class AsyncPoolImpl<T> implements AsyncPool<T> {
         return poolName;
     }
 
-    @Override
-    public void start() {
-        synchronized (lock) {
+    /**
+     * Validate idle objects in the background, and destroy and replace those which fail.
+     * Every interval up to batchSize idle objects which were not validated within the
+     * interval are taken out of the idle pool, validated through the validator, and put
+     * back where they were unless they fail. A batch is not started while the previous
+     * one is still running.
+     *
+     * Objects validated within the freshness window skip {@link LifeCycle#validateGet(Object)}
+     * on get, so the cheap synchronous check is only paid for objects not seen lately.
+     *
+     * This must be called before {@link #start()}.
+     *
+     * @param validator the validator.
+     * @param interval how often an idle object is validated, in milliseconds.
+     * @param batchSize the max number of objects validated at a time.
+     * @param freshness how long a validation is trusted on get in milliseconds, 0 to always validate on get.
+     */
+    public void setIdleValidation(AsyncValidator<T> validator, long interval, int batchSize, long freshness) {
+        if (interval <= 0 || batchSize <= 0 || freshness < 0) {
+            throw new IllegalArgumentException("Invalid idle validation interval " + interval
+                    + " batchSize " + batchSize + " freshness " + freshness);
+        }
+        lock.lock();
+        try {
             if (state != State.NOT_YET_STARTED) {
                 throw new IllegalStateException(poolName + " is " + state);
             }
-            state = State.RUNNING;
-            if (idleTimeout > 0) {
-                long freq = Math.min(idleTimeout, 1000);
-                objectTimeoutFuture = timeoutExecutor.scheduleAtFixedRate(new Runnable() {
-                    @Override
-                    public void run() {
-                        timeoutObjects();
-                    }
-                }, freq, freq, TimeUnit.MILLISECONDS);
-            }
+            this.validator = validator;
+            this.validationInterval = interval;
+            this.validationBatch = batchSize;
+            this.validationFreshness = freshness;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // make the minimum required number of objects now
-        for (int i = 0; i < minSize; i++) {
-            if (shouldCreate()) {
-                create();
+    /**
+     * Validate idle objects in the background through the validateGet of the life cycle.
+     *
+     * @see #setIdleValidation(AsyncValidator, long, int, long)
+     */
+    public void setIdleValidation(long interval, int batchSize, long freshness) {
+        setIdleValidation(new AsyncValidator<T>() {
+            @Override
+            public void validate(T obj, Callback<Boolean> callback) {
+                lifeCycle.validateGet(obj, callback);
             }
-        }
+        }, interval, batchSize, freshness);
     }
 
-    @Override
-    public Cancellable get(Callback<T> callback) {
-        boolean create = false;
-        boolean reject = false;
-        final LinkedDeque.Node<Callback<T>> node;
-        TimeTrackingCallback<T> timeTrackingCallback = new TimeTrackingCallback<>(callback);
-        for (;;) {
-            TimedObject<T> obj = null;
-            final State innerState;
-            synchronized (lock) {
-                innerState = state;
-                if (innerState == State.RUNNING) {
-                    if (strategy == Strategy.LRU) {
-                        obj = idle.pollFirst();
-                    } else {
-                        obj = idle.pollLast();
-                    }
-
-                    if (obj == null) {
-                        if (waiters.size() < maxWaiters) {
-                            // the object is null and the waiters queue is not full
-                            node = waiters.addLastNode(timeTrackingCallback);
-                            create = shouldCreate();
-                        } else {
-                            reject = true;
-                            node = null;
-                        }
-                        break;
-                    }
-                }
-            }
-            if (innerState != State.RUNNING) {
-                timeTrackingCallback.onError(new IllegalStateException(poolName + " is " + innerState));
-                return null;
+    /**
+     * Limit the number of waiters of a priority class, on top of the overall maxWaiters.
+     * This must be called before {@link #start()}.
+     *
+     * @param priority the priority class.
+     * @param maxWaiters the max number of waiters of the class.
+     */
+    public void setMaxWaiters(Priority priority, int maxWaiters) {
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
             }
-            T rawObj = obj.getObj();
-            if (lifeCycle.validateGet(rawObj)) {
-                synchronized (lock) {
-                    checkedOut ++;
-                }
-                timeTrackingCallback.onSuccess(rawObj);
-                return null;
+            waiters.setMaxSize(priority, maxWaiters);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Set how fast waiters age. A waiter moves up one priority class for every aging
+     * period it has waited, so low priority waiters are not starved under a steady load
+     * of high priority ones. The default is one second.
+     * This must be called before {@link #start()}.
+     *
+     * @param aging the aging period in milliseconds, 0 for strict priorities.
+     */
+    public void setPriorityAging(long aging) {
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
             }
+            waiters.setAging(aging);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            // The raw object is invalidate
-            destroy(rawObj, true);
+    /**
+     * Choose the waiter queue discipline. {@link Discipline#FIFO}, the default, serves each
+     * priority class in order. {@link Discipline#CODEL} switches to LIFO once the oldest
+     * waiter kept waiting longer than target for a whole interval, and then fails the
+     * waiters which waited longer than target with {@link OverloadException}. Under overload
+     * most requests are then still served fast, and the stale ones fail early.
+     * This must be called before {@link #start()}.
+     *
+     * @param discipline the discipline.
+     * @param target the acceptable queueing delay in milliseconds, for CODEL.
+     * @param interval how long the delay must stay above target to be an overload, for CODEL.
+     */
+    public void setQueueDiscipline(Discipline discipline, long target, long interval) {
+        if (discipline == Discipline.CODEL && (target <= 0 || interval <= 0)) {
+            throw new IllegalArgumentException("Invalid CoDel target " + target + " interval " + interval);
         }
-        if (reject) {
-            timeTrackingCallback.onError(new SizeLimitExceededException("APool " + poolSize + " exceeded max waiter size: " + maxWaiters));
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
+            }
+            waiters.setDiscipline(discipline, target, interval);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        if (create) {
-            create();
+    /**
+     * Let the pool size itself from demand, with minSize and maxSize as the hard limits.
+     *
+     * The effective max size starts at its floor, a tenth of maxSize (at least one) but
+     * not below minSize. Every period in which a waiter waited longer than targetWait it
+     * grows by a tenth of maxSize (at least one). Every period without any waiter in which
+     * fewer objects than the effective max size were in use it halves, but never below the
+     * floor or the most objects in use in that period, and the idle objects above it are
+     * destroyed right away. The effective min size, below which idle objects are not
+     * reaped, follows the most objects in use in the last period.
+     *
+     * This must be called before {@link #start()}.
+     *
+     * @param targetWait the acceptable time a waiter waits, in milliseconds.
+     * @param period how often the bounds are adjusted, in milliseconds.
+     */
+    public void setAutoScaling(long targetWait, long period) {
+        if (targetWait < 0 || period <= 0) {
+            throw new IllegalArgumentException("Invalid autoscaling target wait " + targetWait + " period " + period);
         }
-        return new Cancellable() {
-            @Override
-            public boolean cancel() {
-                return waiters.removeNode(node) != null;
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
             }
-        };
+            this.autoScaleTargetWait = targetWait;
+            this.autoScalePeriod = period;
+            this.effectiveMaxSize = autoScaleFloor();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    @Override
-    public void put(T obj) {
-        synchronized (lock) {
-            checkedOut --;
+    /**
+     * Create objects ahead of demand. Every period the arrival rate of gets and the time
+     * objects are held are folded into exponentially weighted averages, and by Little's
+     * law their product is the expected number of objects in use. The pool then keeps
+     * that many plus a margin of its square root for bursts, within the max size, so a
+     * burst finds idle objects instead of paying for the creation. The objects are created
+     * through the {@link CreateLatch}, and idle objects the prediction calls for are not
+     * reaped.
+     *
+     * This must be called before {@link #start()}.
+     *
+     * @param period how often the demand is estimated, in milliseconds.
+     */
+    public void setPredictiveCreation(long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Invalid prediction period " + period);
         }
-        if (!lifeCycle.validatePut(obj)) {
-            destroy(obj, true);
-            return;
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
+            }
+            this.predictionPeriod = period;
+        } finally {
+            lock.unlock();
         }
-        createLatch.setPeriod(0);
-        add(obj);
     }
 
-    @Override
-    public void dispose(T obj) {
-        synchronized (lock) {
-            checkedOut --;
-        }
-        destroy(obj, true);
+    /**
+     * Track the {@link com.xqbase.apool.Lease}s of this pool with a leak detector.
+     *
+     * @param leakDetector the leak detector, null to stop tracking new leases.
+     */
+    public void setLeakDetector(LeakDetector leakDetector) {
+        this.leakDetector = leakDetector;
     }
 
     @Override
-    public void shutdown(Callback<None> callback) {
-        final State innerState;
-
-        synchronized (lock) {
-            innerState = state;
+    public LeakDetector getLeakDetector() {
+        return leakDetector;
+    }
 
-            if (innerState == State.RUNNING) {
-                state = State.SHUTTING_DOWN;
-                shutdownCallback = callback;
+    /**
+     * Choose how idle objects are kept. {@link IdleStore#DEQUE}, the default, is a lock
+     * free deque which allocates a node each time an object becomes idle.
+     * {@link IdleStore#SLOTS} is a slot array preallocated for all objects, which
+     * finds idle objects through an occupancy bitmap and does not allocate at all. An
+     * object which finds no free slot is destroyed. Combined with the thread
+     * affine return cache and {@link Callback}s which don't allocate, get and put of
+     * idle objects then run without any allocation in steady state.
+     *
+     * This must be called before {@link #start()}.
+     *
+     * @param idleStore how idle objects are kept.
+     */
+    public void setIdleStore(IdleStore idleStore) {
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
             }
+            this.idleStore = idleStore;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        if (innerState != State.RUNNING) {
-            callback.onError(new IllegalStateException(poolName + " is in State: " + innerState));
-            return;
+    /**
+     * Retire objects once they reach the given age. When an object reaches its max lifetime
+     * a replacement is created first, and the old object keeps serving until the replacement
+     * is idle, so the capacity never dips. The old object is then destroyed as soon as it is
+     * idle or returned.
+     *
+     * Each object gets its own lifetime of maxLifetime minus a random jitter, so objects
+     * created together during warm-up don't all expire together. At most a tenth of maxSize
+     * (at least one) replacements are created at a time, all through the {@link CreateLatch};
+     * objects past their lifetime wait for their turn.
+     *
+     * This must be called before {@link #start()}.
+     *
+     * @param maxLifetime the max lifetime in milliseconds, 0 to keep objects forever.
+     * @param jitter up to how much shorter than maxLifetime an object may live, in milliseconds.
+     */
+    public void setMaxLifetime(long maxLifetime, long jitter) {
+        if (maxLifetime < 0 || jitter < 0 || (maxLifetime > 0 && jitter >= maxLifetime)) {
+            throw new IllegalArgumentException("Invalid max lifetime " + maxLifetime + " with jitter " + jitter);
+        }
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
+            }
+            this.maxLifetime = maxLifetime;
+            this.lifetimeJitter = jitter;
+            this.maxRetiring = maxLifetime > 0 ? Math.max(1, maxSize / 10) : 0;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        shutdownIfNeeded();
+    /**
+     * Reclaim objects which are held longer than the given time. Such an object is taken
+     * back from its holder and destroyed as bad, and its slot is freed for the waiters.
+     * A later put or dispose by the stale holder is ignored.
+     *
+     * Checked out objects are watched by the same timers as idle objects, so the hold time
+     * is enforced at the idle timeout check frequency, at least once a second.
+     *
+     * This must be called before {@link #start()}.
+     *
+     * @param maxHoldTime the max hold time in milliseconds, 0 to let holders keep objects forever.
+     */
+    public void setMaxHoldTime(long maxHoldTime) {
+        if (maxHoldTime < 0) {
+            throw new IllegalArgumentException("Invalid max hold time " + maxHoldTime);
+        }
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
+            }
+            this.maxHoldTime = maxHoldTime;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    @Override
-    public Collection<Callback<T>> cancelWaiters() {
-        synchronized (lock) {
-            List<Callback<T>> cancelWaiters = new ArrayList<>(waiters.size());
-            for (Callback<T> waiter; (waiter = waiters.poll()) != null;) {
-                cancelWaiters.add(waiter);
+    /**
+     * Call the given listener on the events of this pool. The hooks are called
+     * unconditionally, without a listener they go to the no-op one. A hook which
+     * throws is logged and does not disturb the pool. The create latch of the pool
+     * calls the same listener on the creates it delays.
+     *
+     * This must be called before {@link #start()}.
+     *
+     * @param listener the listener.
+     */
+    public void setPoolListener(PoolListener<T> listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Invalid pool listener null");
+        }
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
             }
-            return cancelWaiters;
+            this.listener = PoolListener.guard(poolName, listener);
+            createLatch.setListener(listener);
+        } finally {
+            lock.unlock();
         }
     }
 
-    private void shutdownIfNeeded() {
-        Callback<None> done = checkShutdownComplete();
-        if (done != null) {
-            finishShutdown(done);
+    /**
+     * Register an {@link com.xqbase.apool.jmx.AsyncPoolMXBean} of this pool with the platform
+     * MBean server when the pool starts, and unregister it when the pool stops.
+     *
+     * This must be called before {@link #start()}.
+     *
+     * @param mbeanName the object name, e.g. {@link AsyncPoolManagement#objectName(String)},
+     *                  null not to register.
+     */
+    public void setMBeanName(ObjectName mbeanName) {
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
+            }
+            this.mbeanName = mbeanName;
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * Check whether the shutdown process is complete.
+     * Enable the thread affine return cache. When enabled, put also records the object
+     * in a small per-thread list, and the next get on that thread tries to claim one of
+     * those objects before it polls the shared idle queue. The per-thread list is scanned
+     * newest first with {@link Strategy#MRU} and oldest first with {@link Strategy#LRU}.
      *
-     * @return null if incomplete.
+     * This must be called before {@link #start()}.
+     *
+     * @param threadAffinity whether to enable the thread affine return cache.
      */
-    private Callback<None> checkShutdownComplete() {
-        Callback<None> done = null;
-        final State innerState;
-        final int waitersSize;
-        final int idleSize;
-        final int innerPoolSize;
+    public void setThreadAffinity(boolean threadAffinity) {
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
+            }
+            affinity = threadAffinity ? new ThreadLocal<AffinityList<T>>() {
+                @Override
+                protected AffinityList<T> initialValue() {
+                    return new AffinityList<>();
+                }
+            } : null;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        synchronized (lock) {
-            innerState = state;
-            waitersSize = waiters.size();
-            idleSize = idle.size();
-            innerPoolSize = poolSize;
+    @Override
+    public void start() {
+        startRunning();
 
-            if (innerState == State.SHUTTING_DOWN && waitersSize == 0 && idleSize == innerPoolSize) {
-                state = State.STOPPED;
-                done = shutdownCallback;
-                shutdownCallback = null;
+        // make the minimum required number of objects now
+        for (int i = 0; i < minSize; i++) {
+            if (shouldCreate()) {
+                create();
             }
         }
+    }
 
-        return done;
+    /**
+     * Start the pool and warm it up. The minSize objects are created with at most
+     * parallelism creations in flight, and the callback is invoked once they are all in
+     * the pool, or with an error carrying every failure if any of them failed. The pool
+     * serves gets meanwhile, so a service can delay its readiness until the callback.
+     *
+     * @param parallelism the max number of creations in flight.
+     * @param callback {@link Callback} invoked when the warm-up is done.
+     */
+    public void start(int parallelism, Callback<None> callback) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid warm-up parallelism " + parallelism);
+        }
+        startRunning();
+        new WarmUp(parallelism, callback).next();
     }
 
-    private void finishShutdown(Callback<None> finish) {
-        Future<?> future = objectTimeoutFuture;
-        if (future != null) {
-            future.cancel(false);
+    private void startRunning() {
+        lock.lock();
+        try {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
+            }
+            // Retiring objects may briefly coexist with their replacements.
+            if (idleStore == IdleStore.SLOTS) {
+                idleCapacity = (int) Math.min(Integer.MAX_VALUE, (long) maxSize + maxRetiring);
+                idle = new SlotIdleQueue<T>(idleCapacity, strategy);
+            } else {
+                idle = new DequeIdleQueue<T>(strategy);
+            }
+            state = State.RUNNING;
+            if (idleTimeout > 0 || maxLifetime > 0 || maxHoldTime > 0) {
+                objectTimeoutFuture = timeoutExecutor.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        timeoutObjects();
+                    }
+                }, entryTick, entryTick, TimeUnit.MILLISECONDS);
+            }
+            if (validator != null) {
+                validationFuture = timeoutExecutor.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        validateIdle();
+                    }
+                }, validationInterval, validationInterval, TimeUnit.MILLISECONDS);
+            }
+            if (autoScalePeriod > 0) {
+                autoScaleFuture = timeoutExecutor.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        autoScale();
+                    }
+                }, autoScalePeriod, autoScalePeriod, TimeUnit.MILLISECONDS);
+            }
+            if (predictionPeriod > 0) {
+                predictionFuture = timeoutExecutor.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        predictDemand();
+                    }
+                }, predictionPeriod, predictionPeriod, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (mbeanName != null) {
+            AsyncPoolManagement mbean = new AsyncPoolManagement(this);
+            try {
+                mbean.register(mbeanName);
+                management = mbean;
+            } catch (JMException e) {
+                LOGGER.warn(poolName + " failed to register MBean " + mbeanName, e);
+            }
         }
-        finish.onSuccess(None.none());
     }
 
     @Override
-    public PoolStats getStats() {
-        // get a copy of stats
-        synchronized (lock) {
-            AsyncPoolStats stats = new AsyncPoolStats(
-                poolName,
-                maxSize,
-                minSize,
-                poolSize,
-                totalCreated,
-                totalCreateErrors,
-                totalDestroyed,
-                totalDestroyErrors,
-                totalBadDestroyed,
-                totalTimeout,
-                checkedOut,
-                idle.size()
-            );
-            return stats;
-        }
+    public Cancellable get(Callback<T> callback) {
+        return get(callback, Priority.NORMAL, -1);
+    }
+
+    @Override
+    public Cancellable get(Callback<T> callback, long timeout, TimeUnit unit) {
+        return get(callback, Priority.NORMAL, Math.max(unit.toMillis(timeout), 0));
     }
 
     /**
-     * Whether another object creation should be initiated.
+     * Get an object from the pool with the given priority. When objects are scarce,
+     * freed objects go to higher priority waiters first.
      *
-     * @return true if another object create should be initiated.
+     * @param callback the callback to receive the checked out object.
+     * @param priority the priority of the request.
+     * @return A {@link Cancellable} to cancel the pending get request.
      */
-    public boolean shouldCreate() {
-        boolean result = false;
-        synchronized (lock) {
-            if (state == State.RUNNING) {
-                if (poolSize >= maxSize) {
-                    lastCreateError = null;
-                } else if (waiters.size() > 0 || poolSize < minSize) {
-                    poolSize ++;
-                    result = true;
-                }
-            }
-        }
+    public Cancellable get(Callback<T> callback, Priority priority) {
+        return get(callback, priority, -1);
+    }
 
-        return result;
+    /**
+     * Get an object from the pool with the given priority, and fail with
+     * {@link AcquireTimeoutException} if none is available within the timeout.
+     *
+     * @param callback the callback to receive the checked out object.
+     * @param priority the priority of the request.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return A {@link Cancellable} to cancel the pending get request.
+     */
+    public Cancellable get(Callback<T> callback, Priority priority, long timeout, TimeUnit unit) {
+        return get(callback, priority, Math.max(unit.toMillis(timeout), 0));
     }
 
     /**
-     * The real object creation method.
-     * PLEASE do not call this method while hold lock.
+     * Get an object from the pool.
+     *
+     * @param callback the callback to receive the checked out object.
+     * @param priority the priority of the request.
+     * @param timeout the maximum time to wait in milliseconds, negative to wait forever.
+     * @return A {@link Cancellable} to cancel the pending get request.
      */
-    public void create() {
-        createLatch.submit(new CreateLatch.Task() {
-            @Override
-            public void run(final SimpleCallback callback) {
-                lifeCycle.create(new Callback<T>() {
+    private Cancellable get(Callback<T> callback, Priority priority, long timeout) {
+        // Fast path, take an idle object without the lock and without allocation.
+        for (;;) {
+            final State innerState = state;
+            if (innerState != State.RUNNING) {
+                callback.onError(new IllegalStateException(poolName + " is " + innerState));
+                return null;
+            }
+            // Don't overtake the queued waiters, the next idle object is theirs.
+            if (waitersSize > 0) {
+                break;
+            }
+            TimedObject<T> obj = pollIdle();
+            if (obj == null) {
+                break;
+            }
+            T rawObj = obj.getObj();
+            if (isFresh(obj) || (syncValidation && lifeCycle.validateGet(rawObj))) {
+                checkOut(obj);
+                callback.onSuccess(rawObj);
+                return null;
+            }
+            if (!syncValidation) {
+                // Hand the object out once it passed, we are back in the queue if it fails.
+                TimeTrackingCallback<T> waiter = new TimeTrackingCallback<>(callback, priority, timeout);
+                validateAndServe(obj, waiter);
+                return cancellable(waiter);
+            }
+
+            // The raw object is invalidate
+            destroy(rawObj, true);
+        }
+
+        // Slow path, enqueue as a waiter.
+        TimeTrackingCallback<T> timeTrackingCallback = new TimeTrackingCallback<>(callback, priority, timeout);
+        return enqueue(timeTrackingCallback) ? cancellable(timeTrackingCallback) : null;
+    }
+
+    /**
+     * Borrow an object from the pool, blocking the calling thread until one is available.
+     *
+     * The calling thread itself is the waiter, it parks until an object is handed over
+     * and needs no future. The pool blocks on a j.u.c lock rather than a monitor, so this
+     * suits virtual threads, which do not pin their carrier thread while they wait.
+     * The object must be returned with {@link #put(Object)}.
+     *
+     * @param timeout the maximum time to wait, negative to wait forever.
+     * @param unit the unit of the timeout.
+     * @return the checked out object.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws ExecutionException if the get failed, e.g. with {@link AcquireTimeoutException}.
+     */
+    public T borrow(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException {
+        return borrow(Priority.NORMAL, timeout, unit);
+    }
+
+    /**
+     * Borrow an object from the pool with the given priority.
+     *
+     * @see #borrow(long, TimeUnit)
+     */
+    public T borrow(Priority priority, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException {
+        long timeoutMs = timeout < 0 ? -1 : unit.toMillis(timeout);
+        BlockingWaiter<T> waiter = null;
+        for (;;) {
+            final State innerState = state;
+            if (innerState != State.RUNNING) {
+                throw new ExecutionException(new IllegalStateException(poolName + " is " + innerState));
+            }
+            if (waitersSize > 0) {
+                break;
+            }
+            TimedObject<T> obj = pollIdle();
+            if (obj == null) {
+                break;
+            }
+            T rawObj = obj.getObj();
+            if (isFresh(obj) || (syncValidation && lifeCycle.validateGet(rawObj))) {
+                checkOut(obj);
+                return rawObj;
+            }
+            if (!syncValidation) {
+                waiter = new BlockingWaiter<>(priority, timeoutMs);
+                validateAndServe(obj, waiter);
+                break;
+            }
+            destroy(rawObj, true);
+        }
+
+        if (waiter == null) {
+            waiter = new BlockingWaiter<>(priority, timeoutMs);
+            enqueue(waiter);
+        }
+        while (!waiter.isDone()) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                if (cancel(waiter)) {
+                    throw new InterruptedException();
+                }
+                // The object is on its way, take it and keep the interrupt for the caller.
+                while (!waiter.isDone()) {
+                    LockSupport.park(this);
+                }
+                Thread.currentThread().interrupt();
+            }
+        }
+        return waiter.getResult();
+    }
+
+    /**
+     * Take an idle object without the lock, from the affinity list of the thread first.
+     *
+     * @return the claimed entry or null if there is no idle object.
+     */
+    private TimedObject<T> pollIdle() {
+        TimedObject<T> obj = null;
+        if (affinity != null) {
+            obj = affinity.get().claim(strategy == Strategy.MRU);
+        }
+        if (obj == null) {
+            obj = idle.poll();
+        }
+        if (obj != null) {
+            idleObjects.decrementAndGet();
+        }
+        return obj;
+    }
+
+    /**
+     * Queue a waiter, or fail it if the pool is not running or the waiters are full.
+     *
+     * @param waiter the waiter.
+     * @return true if the waiter was queued.
+     */
+    private boolean enqueue(TimeTrackingCallback<T> waiter) {
+        boolean create = false;
+        boolean reject = false;
+        final State innerState;
+        lock.lock();
+        try {
+            innerState = state;
+            if (innerState == State.RUNNING && waiters.size() < maxWaiters && waiters.offer(waiter)) {
+                waitersSize = waiters.size();
+                if (waiter.getDeadline() >= 0) {
+                    scheduleWaiterTimeout(waiter, waiter.getDeadline());
+                } else if (waiters.isCoDel()) {
+                    // The queueing delay is watched on every tick, not only when objects come back.
+                    startWaiterTick();
+                }
+                create = shouldCreate();
+            } else {
+                reject = innerState == State.RUNNING;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (innerState != State.RUNNING) {
+            waiter.onError(new IllegalStateException(poolName + " is " + innerState));
+            return false;
+        }
+        if (reject) {
+            rejects.record(System.currentTimeMillis());
+            int limit = Math.min(maxWaiters, waiters.getMaxSize(waiter.getPriority()));
+            waiter.onError(new SizeLimitExceededException("APool " + poolName + " exceeded max "
+                    + waiter.getPriority() + " waiter size: " + limit));
+            return false;
+        }
+        listener.onWaiterEnqueue();
+
+        // An object may have been returned to idle after the fast path missed it
+        // but before the waiter became visible, hand it over now.
+        serveWaiters();
+
+        if (create) {
+            create();
+        }
+        return true;
+    }
+
+    /**
+     * Get a {@link Cancellable} which removes the waiter while it is queued. A waiter
+     * whose object is being validated can not be cancelled until it is queued again.
+     *
+     * @param waiter the waiter.
+     * @return the cancellable.
+     */
+    private Cancellable cancellable(final TimeTrackingCallback<T> waiter) {
+        return new Cancellable() {
+            @Override
+            public boolean cancel() {
+                return AsyncPoolImpl.this.cancel(waiter);
+            }
+        };
+    }
+
+    /**
+     * Remove a waiter while it is queued.
+     *
+     * @param waiter the waiter.
+     * @return true if the waiter was queued and is removed now.
+     */
+    private boolean cancel(TimeTrackingCallback<T> waiter) {
+        lock.lock();
+        try {
+            if (!waiters.remove(waiter)) {
+                return false;
+            }
+            waiterWheel.cancel(waiter);
+            waitersSize = waiters.size();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Validate an object claimed for a waiter, and hand it over once it passed.
+     * If it fails, it is destroyed and the waiter goes back to the head of the queue.
+     *
+     * @param entry the entry of the claimed object.
+     * @param waiter the waiter.
+     */
+    private void validateAndServe(final TimedObject<T> entry, final TimeTrackingCallback<T> waiter) {
+        lifeCycle.validateGet(entry.getObj(), new Callback<Boolean>() {
+            @Override
+            public void onError(Throwable e) {
+                LOGGER.debug(poolName + " failed to validate an object on get", e);
+                done(false);
+            }
+
+            @Override
+            public void onSuccess(Boolean valid) {
+                done(valid != null && valid);
+            }
+
+            private void done(boolean valid) {
+                if (valid) {
+                    serve(entry, waiter);
+                    return;
+                }
+                destroy(entry.getObj(), true);
+                requeue(waiter);
+            }
+        });
+    }
+
+    /**
+     * Put a waiter whose object failed validation back at the head of the queue,
+     * with its original deadline.
+     *
+     * @param waiter the waiter.
+     */
+    private void requeue(TimeTrackingCallback<T> waiter) {
+        boolean create = false;
+        final State innerState;
+        lock.lock();
+        try {
+            innerState = state;
+            if (innerState == State.RUNNING) {
+                waiters.offerFirst(waiter);
+                waitersSize = waiters.size();
+                if (waiter.getDeadline() >= 0) {
+                    scheduleWaiterTimeout(waiter, waiter.getDeadline());
+                }
+                create = shouldCreate();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (innerState != State.RUNNING) {
+            waiter.onError(new IllegalStateException(poolName + " is " + innerState));
+            return;
+        }
+        serveWaiters();
+        if (create) {
+            create();
+        }
+    }
+
+    @Override
+    public void put(T obj) {
+        TimedObject<T> entry = entries.get(obj);
+        if (entry == null || !entry.tryReturn()) {
+            LOGGER.warn(poolName + " ignoring put of an object which is not checked out");
+            return;
+        }
+        checkedOut.decrementAndGet();
+        checkIn(entry);
+        listener.onReturn(obj);
+        if (takeOverflow()) {
+            destroy(obj, false);
+            return;
+        }
+        // The affinity list can only claim the entry once it is idle, so add it up front,
+        // an entry destroyed instead is dropped from the list later.
+        if (affinity != null) {
+            affinity.get().add(entry);
+        }
+        if (syncValidation) {
+            if (!lifeCycle.validatePut(obj)) {
+                destroy(obj, true);
+                return;
+            }
+            createLatch.setPeriod(0);
+            add(entry);
+            return;
+        }
+        final TimedObject<T> returned = entry;
+        lifeCycle.validatePut(obj, new Callback<Boolean>() {
+            @Override
+            public void onError(Throwable e) {
+                LOGGER.debug(poolName + " failed to validate an object on put", e);
+                done(false);
+            }
+
+            @Override
+            public void onSuccess(Boolean valid) {
+                done(valid != null && valid);
+            }
+
+            private void done(boolean valid) {
+                if (!valid) {
+                    destroy(returned.getObj(), true);
+                    return;
+                }
+                createLatch.setPeriod(0);
+                add(returned);
+            }
+        });
+    }
+
+    @Override
+    public void dispose(T obj) {
+        TimedObject<T> entry = entries.get(obj);
+        if (entry == null || !entry.tryReturn()) {
+            LOGGER.warn(poolName + " ignoring dispose of an object which is not checked out");
+            return;
+        }
+        checkedOut.decrementAndGet();
+        checkIn(entry);
+        listener.onReturn(obj);
+        takeOverflow();
+        destroy(obj, true);
+    }
+
+    @Override
+    public void shutdown(Callback<None> callback) {
+        final State innerState;
+
+        lock.lock();
+        try {
+            innerState = state;
+
+            if (innerState == State.RUNNING) {
+                state = State.SHUTTING_DOWN;
+                shutdownCallback = callback;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (innerState != State.RUNNING) {
+            callback.onError(new IllegalStateException(poolName + " is in State: " + innerState));
+            return;
+        }
+
+        listener.onShutdownStart();
+        shutdownIfNeeded();
+    }
+
+    @Override
+    public Collection<Callback<T>> cancelWaiters() {
+        lock.lock();
+        try {
+            return drainWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void shutdownIfNeeded() {
+        Callback<None> done = checkShutdownComplete();
+        if (done != null) {
+            finishShutdown(done);
+        }
+    }
+
+    /**
+     * Check whether the shutdown process is complete.
+     *
+     * @return null if incomplete.
+     */
+    private Callback<None> checkShutdownComplete() {
+        Callback<None> done = null;
+        final State innerState;
+        final int waitersSize;
+        final int idleSize;
+        final int innerPoolSize;
+
+        lock.lock();
+        try {
+            innerState = state;
+            waitersSize = waiters.size();
+            idleSize = idleCount();
+            innerPoolSize = poolSize;
+
+            if (innerState == State.SHUTTING_DOWN && waitersSize == 0 && idleSize == innerPoolSize) {
+                state = State.STOPPED;
+                done = shutdownCallback;
+                shutdownCallback = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return done;
+    }
+
+    private void finishShutdown(Callback<None> finish) {
+        Future<?> future = objectTimeoutFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+        future = validationFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+        future = autoScaleFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+        future = predictionFuture;
+        if (future != null) {
+            future.cancel(false);
+        }
+        lock.lock();
+        try {
+            if (waiterTimeoutFuture != null) {
+                waiterTimeoutFuture.cancel(false);
+                waiterTimeoutFuture = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        AsyncPoolManagement mbean = management;
+        if (mbean != null) {
+            mbean.unregister();
+            management = null;
+        }
+        listener.onShutdownComplete();
+        finish.onSuccess(None.none());
+    }
+
+    @Override
+    public PoolStats getStats() {
+        // A lock free copy of the stats, each value is read on its own.
+        return new AsyncPoolStats(
+            poolName,
+            maxSize,
+            minSize,
+            poolSize,
+            totalCreated.sum(),
+            totalCreateErrors.sum(),
+            totalDestroyed.sum(),
+            totalDestroyErrors.sum(),
+            totalBadDestroyed.sum(),
+            totalTimeout.sum(),
+            checkedOut.get(),
+            idleCount(),
+            waitTimes.snapshot(),
+            createTimes.snapshot(),
+            holdTimes.snapshot(),
+            destroyTimes.snapshot(),
+            acquires.snapshot(),
+            creates.snapshot(),
+            createErrors.snapshot(),
+            timeouts.snapshot(),
+            rejects.snapshot()
+        );
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void visitStats(StatsVisitor visitor) {
+        visitor.visitPool(poolName);
+        visitor.visitGauge(StatsVisitor.Gauge.MAX_POOL_SIZE, maxSize);
+        visitor.visitGauge(StatsVisitor.Gauge.MIN_POOL_SIZE, minSize);
+        visitor.visitGauge(StatsVisitor.Gauge.POOL_SIZE, poolSize);
+        visitor.visitGauge(StatsVisitor.Gauge.CHECKED_OUT, checkedOut.get());
+        visitor.visitGauge(StatsVisitor.Gauge.IDLE_COUNT, idleCount());
+        visitor.visitCounter(StatsVisitor.Counter.CREATED, totalCreated.sum());
+        visitor.visitCounter(StatsVisitor.Counter.CREATE_ERRORS, totalCreateErrors.sum());
+        visitor.visitCounter(StatsVisitor.Counter.DESTROYED, totalDestroyed.sum());
+        visitor.visitCounter(StatsVisitor.Counter.DESTROY_ERRORS, totalDestroyErrors.sum());
+        visitor.visitCounter(StatsVisitor.Counter.BAD_DESTROYED, totalBadDestroyed.sum());
+        visitor.visitCounter(StatsVisitor.Counter.TIMEOUT, totalTimeout.sum());
+        waitTimes.accept(visitor, StatsVisitor.Latency.WAIT);
+        createTimes.accept(visitor, StatsVisitor.Latency.CREATE);
+        holdTimes.accept(visitor, StatsVisitor.Latency.HOLD);
+        destroyTimes.accept(visitor, StatsVisitor.Latency.DESTROY);
+        acquires.accept(visitor, StatsVisitor.Rate.ACQUIRE);
+        creates.accept(visitor, StatsVisitor.Rate.CREATE);
+        createErrors.accept(visitor, StatsVisitor.Rate.CREATE_ERROR);
+        timeouts.accept(visitor, StatsVisitor.Rate.TIMEOUT);
+        rejects.accept(visitor, StatsVisitor.Rate.REJECT);
+    }
+
+    /**
+     * Change the bounds of a pool at runtime. When autoscaling, the bounds in effect are
+     * moved into the new bounds. A larger pool creates the objects its waiters and its
+     * min size call for, a smaller one destroys its idle objects above the new max now,
+     * and the objects still checked out above it when they are returned.
+     *
+     * @param minSize the new min size.
+     * @param maxSize the new max size.
+     */
+    public void resize(int minSize, int maxSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size " + minSize + " to " + maxSize);
+        }
+        int create = 0;
+        int limit;
+        lock.lock();
+        try {
+            // A tenth of the new max size may be retiring at a time, as in setMaxLifetime.
+            int retiringLimit = maxLifetime > 0 ? Math.max(1, maxSize / 10) : 0;
+            if ((long) maxSize + retiringLimit > idleCapacity) {
+                throw new IllegalArgumentException(poolName + " can not grow beyond the "
+                        + idleCapacity + " slots of its idle store");
+            }
+            this.maxRetiring = retiringLimit;
+            this.maxSize = maxSize;
+            this.minSize = minSize;
+            if (autoScalePeriod > 0) {
+                effectiveMaxSize = Math.max(autoScaleFloor(), Math.min(maxSize, effectiveMaxSize));
+                effectiveMinSize = Math.min(effectiveMaxSize, Math.max(minSize, effectiveMinSize));
+            } else {
+                effectiveMaxSize = maxSize;
+                effectiveMinSize = minSize;
+            }
+            predictedSize = Math.min(predictedSize, maxSize);
+            limit = effectiveMaxSize;
+            while (shouldCreate()) {
+                create ++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i < create; i++) {
+            create();
+        }
+        if (state == State.RUNNING) {
+            destroyIdle(limit, true);
+        }
+    }
+
+    /**
+     * Destroy the idle objects above the min size now, rather than waiting for them to
+     * time out.
+     *
+     * @return the number of destroyed objects.
+     */
+    public int shrinkIdle() {
+        int limit;
+        lock.lock();
+        try {
+            limit = Math.max(effectiveMinSize, predictedSize);
+        } finally {
+            lock.unlock();
+        }
+        return destroyIdle(limit, false);
+    }
+
+    /**
+     * Destroy idle objects until the pool size gets down to the limit.
+     *
+     * @param limit the pool size to get down to.
+     * @param resize whether to destroy the checked out objects above the limit once returned.
+     * @return the number of destroyed objects.
+     */
+    private int destroyIdle(int limit, boolean resize) {
+        List<T> destroy = new ArrayList<>();
+        lock.lock();
+        try {
+            int exceed = poolSize - limit;
+            for (Iterator<TimedObject<T>> it = entries.iterator(); exceed > 0 && it.hasNext();) {
+                TimedObject<T> entry = it.next();
+                if (removeIdle(entry)) {
+                    destroy.add(entry.getObj());
+                    exceed --;
+                }
+            }
+            if (resize) {
+                overflow.set(Math.max(0, exceed));
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (T obj : destroy) {
+            destroy(obj, false);
+        }
+        return destroy.size();
+    }
+
+    /**
+     * Take one of the returned objects which are to be destroyed after a resize.
+     *
+     * @return true if the returned object should be destroyed.
+     */
+    private boolean takeOverflow() {
+        for (;;) {
+            int count = overflow.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (overflow.compareAndSet(count, count - 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Whether another object creation should be initiated.
+     *
+     * @return true if another object create should be initiated.
+     */
+    public boolean shouldCreate() {
+        boolean result = false;
+        lock.lock();
+        try {
+            if (state == State.RUNNING) {
+                if (poolSize >= effectiveMaxSize) {
+                    lastCreateError = null;
+                } else if (waiters.size() > 0 || poolSize < Math.max(effectiveMinSize, predictedSize)) {
+                    poolSize ++;
+                    result = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return result;
+    }
+
+    /**
+     * The real object creation method.
+     * PLEASE do not call this method while hold lock.
+     */
+    public void create() {
+        create(null);
+    }
+
+    /**
+     * Create an object, and tell the given callback once it is in the pool.
+     * PLEASE do not call this method while hold lock.
+     *
+     * @param done invoked when the object was created or failed to be, may be null.
+     */
+    private void create(final Callback<None> done) {
+        createLatch.submit(new CreateTask() {
+            @Override
+            void cancelled(Throwable e) {
+                if (done != null) {
+                    done.onError(e);
+                }
+            }
+
+            @Override
+            public void run(final SimpleCallback callback) {
+                final long createStart = System.nanoTime();
+                listener.onCreateStart();
+                lifeCycle.create(new Callback<T>() {
                     @Override
                     public void onError(final Throwable e) {
                         createLatch.incrementPeriod();
@@ -368,27 +1409,116 @@ public class AsyncPoolImpl<T> implements AsyncPool<T> {
                         final Collection<Callback<T>> waitersDenied;
                         final Collection<CreateLatch.Task> pendingTasks = createLatch.cancelPendingTasks();
                         boolean create;
-                        synchronized (lock) {
-                            totalCreateErrors ++;
-                            create = objectDestroyed(1 + pendingTasks.size());
-                            if (!waiters.isEmpty()) {
-                                waitersDenied = waiters;
-                            } else {
-                                waitersDenied = Collections.emptyList();
-                            }
+                        totalCreateErrors.increment();
+                        createErrors.record(System.currentTimeMillis());
+                        AsyncPoolManagement mbean = management;
+                        if (mbean != null) {
+                            mbean.createFailed(e);
+                        }
+                        listener.onCreateFailure(e);
+                        lock.lock();
+                        try {
+                            create = objectDestroyed(1 + pendingTasks.size());
+                            if (!waiters.isEmpty()) {
+                                waitersDenied = drainWaiters();
+                            } else {
+                                waitersDenied = Collections.emptyList();
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+
+                        // We should better handle the actual callback task
+                        // in a separate thread.
+                        callbackExecutor.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                for (Callback<T> waiter : waitersDenied) {
+                                    waiter.onError(e);
+                                }
+                            }
+                        });
+
+                        // The slots of the cancelled tasks are already released above.
+                        for (CreateLatch.Task task : pendingTasks) {
+                            if (task instanceof CreateTask) {
+                                ((CreateTask) task).cancelled(e);
+                            }
+                        }
+                        if (create) {
+                            create();
+                        }
+                        if (done != null) {
+                            done.onError(e);
+                        }
+                        callback.onDone();
+                    }
+
+                    @Override
+                    public void onSuccess(T result) {
+                        add(register(result, createStart));
+                        if (done != null) {
+                            done.onSuccess(None.none());
+                        }
+                        callback.onDone();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Create a replacement for an object past its max lifetime, and retire the old
+     * object once the replacement exists. The pool slot of the replacement has already
+     * been reserved.
+     *
+     * @param old the entry of the object to be retired.
+     */
+    private void replace(final TimedObject<T> old) {
+        createLatch.submit(new CreateTask() {
+            @Override
+            void cancelled(Throwable e) {
+                lock.lock();
+                try {
+                    retiring --;
+                    old.setRetiring(false);
+                    if (!old.isRemoved()) {
+                        entryWheel.add(old, System.currentTimeMillis() + maxLifetime / 10);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void run(final SimpleCallback callback) {
+                final long createStart = System.nanoTime();
+                listener.onCreateStart();
+                lifeCycle.create(new Callback<T>() {
+                    @Override
+                    public void onError(Throwable e) {
+                        createLatch.incrementPeriod();
+                        LOGGER.debug(poolName + " failed to create a replacement, keeping the old object", e);
+                        boolean create;
+                        totalCreateErrors.increment();
+                        createErrors.record(System.currentTimeMillis());
+                        AsyncPoolManagement mbean = management;
+                        if (mbean != null) {
+                            mbean.createFailed(e);
                         }
-
-                        // We should better handle the actual callback task
-                        // in a separate thread.
-                        callbackExecutor.submit(new Runnable() {
-                            @Override
-                            public void run() {
-                                for (Callback<T> waiter : waitersDenied) {
-                                    waiter.onError(e);
-                                }
+                        listener.onCreateFailure(e);
+                        lock.lock();
+                        try {
+                            retiring --;
+                            old.setRetiring(false);
+                            // Keep the old object a little longer and try again later.
+                            if (!old.isRemoved()) {
+                                entryWheel.add(old, System.currentTimeMillis() + maxLifetime / 10);
                             }
-                        });
-
+                            create = objectDestroyed();
+                        } finally {
+                            lock.unlock();
+                        }
                         if (create) {
                             create();
                         }
@@ -397,10 +1527,24 @@ public class AsyncPoolImpl<T> implements AsyncPool<T> {
 
                     @Override
                     public void onSuccess(T result) {
-                        synchronized (lock) {
-                            totalCreated ++;
+                        TimedObject<T> entry = register(result, createStart);
+                        lock.lock();
+                        try {
+                            retiring --;
+                            retired ++;
+                        } finally {
+                            lock.unlock();
+                        }
+                        // Retire the old object first, so that the waiters get the new one.
+                        old.retire();
+                        if (removeIdle(old)) {
+                            destroy(old.getObj(), false);
+                        } else {
+                            // Checked out but maybe still queued, it never goes idle again,
+                            // so its idle slot is the replacement's.
+                            idle.remove(old);
                         }
-                        add(result);
+                        add(entry);
                         callback.onDone();
                     }
                 });
@@ -408,6 +1552,64 @@ public class AsyncPoolImpl<T> implements AsyncPool<T> {
         });
     }
 
+    /**
+     * Register a newly created object and arm its timer.
+     *
+     * @param obj the newly created object.
+     * @param createStart when the creation started, in nanoseconds.
+     * @return the entry of the object.
+     */
+    private TimedObject<T> register(T obj, long createStart) {
+        long nanos = System.nanoTime() - createStart;
+        createTimes.record(nanos / 1000);
+        listener.onCreateSuccess(obj, nanos);
+        TimedObject<T> entry = new TimedObject<>(obj);
+        if (maxLifetime > 0) {
+            long jitter = lifetimeJitter > 0 ? ThreadLocalRandom.current().nextLong(lifetimeJitter + 1) : 0;
+            entry.setExpireTime(entry.getTime() + maxLifetime - jitter);
+        }
+        entries.put(entry);
+        totalCreated.increment();
+        creates.record(entry.getTime());
+        lock.lock();
+        try {
+            long deadline = nextDeadline(entry, entry.getTime());
+            if (deadline != Long.MAX_VALUE) {
+                entryWheel.add(entry, deadline);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return entry;
+    }
+
+    /**
+     * Get the earliest time the timer of an entry has to look at it again.
+     *
+     * @param entry the entry.
+     * @param now the current time.
+     * @return the deadline or Long.MAX_VALUE if the entry needs no timer.
+     */
+    private long nextDeadline(TimedObject<T> entry, long now) {
+        long deadline = Long.MAX_VALUE;
+        if (idleTimeout > 0) {
+            long idleDeadline = entry.getTime() + idleTimeout;
+            // An object in use can not expire within the next idle timeout.
+            deadline = entry.isIdle() && idleDeadline > now ? idleDeadline : now + idleTimeout;
+        }
+        // A retiring object is already being replaced.
+        if (maxLifetime > 0 && !entry.isRetiring()) {
+            deadline = Math.min(deadline, entry.getExpireTime());
+        }
+        if (maxHoldTime > 0) {
+            long holdDeadline = entry.getCheckoutTime() + maxHoldTime;
+            // An object which is not yet checked out can not be overdue within the next max hold time.
+            deadline = Math.min(deadline, entry.getCheckoutTime() > 0 && holdDeadline > now
+                    ? holdDeadline : now + maxHoldTime);
+        }
+        return deadline;
+    }
+
     /**
      * Destroy the pool object.
      *
@@ -415,35 +1617,65 @@ public class AsyncPoolImpl<T> implements AsyncPool<T> {
      * @param bad whether the being destroyed pool object is bad or not.
      */
     private void destroy(T obj, boolean bad) {
+        destroy(obj, bad, false);
+    }
+
+    /**
+     * Destroy the pool object, and optionally hand its slot over to a replacement
+     * once it is destroyed.
+     *
+     * @param obj the pool object to be destroyed.
+     * @param bad whether the being destroyed pool object is bad or not.
+     * @param replace whether to create a replacement while the pool is running.
+     */
+    private void destroy(T obj, boolean bad, final boolean replace) {
+        TimedObject<T> entry = entries.remove(obj);
+        if (entry != null) {
+            if (entry.remove()) {
+                idleObjects.decrementAndGet();
+            }
+            idle.remove(entry);
+            lock.lock();
+            try {
+                entryWheel.cancel(entry);
+                if (entry.isRetired()) {
+                    retired --;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
         if (bad) {
             createLatch.incrementPeriod();
-            synchronized (lock) {
-                totalBadDestroyed ++;
-            }
+            totalBadDestroyed.increment();
         }
+        listener.onDestroy(obj, bad);
+        final long destroyStart = System.nanoTime();
         lifeCycle.destroy(obj, bad, new Callback<T>() {
             @Override
             public void onError(Throwable e) {
-                boolean create;
-                synchronized (lock) {
-                    totalDestroyErrors++;
-                    create = objectDestroyed();
-                }
+                totalDestroyErrors.increment();
+                destroyTimes.record((System.nanoTime() - destroyStart) / 1000);
+                boolean create = replace && state == State.RUNNING || objectDestroyed();
                 if (create) {
                     create();
                 }
+                if (state != State.RUNNING) {
+                    shutdownIfNeeded();
+                }
             }
 
             @Override
             public void onSuccess(T result) {
-                boolean create;
-                synchronized (lock) {
-                    totalDestroyed++;
-                    create = objectDestroyed();
-                }
+                totalDestroyed.increment();
+                destroyTimes.record((System.nanoTime() - destroyStart) / 1000);
+                boolean create = replace && state == State.RUNNING || objectDestroyed();
                 if (create) {
                     create();
                 }
+                if (state != State.RUNNING) {
+                    shutdownIfNeeded();
+                }
             }
         });
     }
@@ -460,112 +1692,695 @@ public class AsyncPoolImpl<T> implements AsyncPool<T> {
      */
     private boolean objectDestroyed(int num) {
         boolean create;
-        synchronized (lock) {
+        lock.lock();
+        try {
             if (poolSize - num > 0) {
                 poolSize -= num;
             } else {
                 poolSize = 0;
             }
             create = shouldCreate();
+        } finally {
+            lock.unlock();
         }
 
         return create;
     }
 
     /**
-     * Add the newly created object to the idle pool
-     * or directly transfer to the waiter.
+     * Add the newly created or returned object to the idle pool
+     * and hand it over to the waiters if there are any.
+     *
+     * @param entry the entry of the pool object.
+     */
+    private void add(TimedObject<T> entry) {
+        entry.release();
+        offerIdle(entry);
+    }
+
+    /**
+     * Offer a released entry to the idle pool and hand it over to the waiters if there are any.
      *
-     * @param obj the newly created pool object.
+     * @param entry the entry of the pool object.
      */
-    private void add(T obj) {
-        Callback<T> waiter;
+    private void offerIdle(TimedObject<T> entry) {
+        // Counted once released, so that a pool whose objects are all idle sees it in shutdownIfNeeded below.
+        idleObjects.incrementAndGet();
+        // The replacement of a retired object exists, don't let it go idle. We release
+        // before we check, and retiring marks before it removes, so one side sees it.
+        if (entry.isRetired()) {
+            if (removeIdle(entry)) {
+                destroy(entry.getObj(), false);
+            }
+            return;
+        }
+        if (!idle.offer(entry)) {
+            // The slots cover maxSize and the retiring overlap, see startRunning and resize,
+            // so only a broken count gets here. Drop the object rather than fail the put.
+            LOGGER.warn(poolName + " destroying an object which found no free idle slot");
+            if (removeIdle(entry)) {
+                destroy(entry.getObj(), false);
+            }
+            return;
+        }
+
+        // The waiter enqueues itself before it polls idle again, and we offer before we
+        // check waitersSize, so at least one side sees the other and no waiter is lost.
+        if (waitersSize > 0) {
+            serveWaiters();
+        }
+        if (state != State.RUNNING) {
+            shutdownIfNeeded();
+        }
+    }
 
-        synchronized (lock) {
-            // If we have waiters, the idle list must be empty.
-            waiter = waiters.poll();
-            if (waiter == null) {
-                idle.offerLast(new TimedObject<T>(obj));
+    /**
+     * Hand idle objects over to the waiters until either of them runs out. With an
+     * asynchronous life cycle we move on to the next waiter while an object is validated.
+     */
+    private void serveWaiters() {
+        List<TimeTrackingCallback<T>> shed = null;
+        for (;;) {
+            TimeTrackingCallback<T> waiter;
+            TimedObject<T> obj;
+            lock.lock();
+            try {
+                if (waiters.isEmpty()) {
+                    break;
+                }
+                if (waiters.isOverloaded() || shed == null) {
+                    if (shed == null) {
+                        shed = new ArrayList<>(0);
+                    }
+                    shedWaiters(shed);
+                    if (waiters.isEmpty()) {
+                        break;
+                    }
+                }
+                obj = idle.poll();
+                if (obj == null) {
+                    break;
+                }
+                idleObjects.decrementAndGet();
+                waiter = pollWaiter();
+            } finally {
+                lock.unlock();
+            }
+            if (syncValidation || isFresh(obj)) {
+                serve(obj, waiter);
             } else {
-                checkedOut ++;
+                validateAndServe(obj, waiter);
             }
         }
+        if (shed != null) {
+            failShed(shed);
+        }
+    }
+
+    /**
+     * Fail the waiters the queue discipline shed.
+     *
+     * @param shed the removed waiters.
+     */
+    private void failShed(List<TimeTrackingCallback<T>> shed) {
+        if (shed.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (TimeTrackingCallback<T> waiter : shed) {
+            rejects.record(now);
+            waiter.onError(new OverloadException(poolName + " is overloaded, shed a waiter after waiting "
+                    + (now - waiter.getStartTime()) + "ms"));
+        }
+        if (state != State.RUNNING) {
+            shutdownIfNeeded();
+        }
+    }
+
+    /**
+     * Remove the waiters the queue discipline sheds and cancel their timeouts.
+     * Lock must be acquired before call this method.
+     *
+     * @param shed collects the removed waiters.
+     */
+    private void shedWaiters(List<TimeTrackingCallback<T>> shed) {
+        int from = shed.size();
+        waiters.shed(System.currentTimeMillis(), shed);
+        for (int i = from; i < shed.size(); i++) {
+            waiterWheel.cancel(shed.get(i));
+        }
+        waitersSize = waiters.size();
+    }
 
+    /**
+     * Poll the next waiter and cancel its timeout. Lock must be acquired before call this method.
+     *
+     * @return the waiter or null if there is none.
+     */
+    private TimeTrackingCallback<T> pollWaiter() {
+        TimeTrackingCallback<T> waiter = waiters.poll();
         if (waiter != null) {
-            waiter.onSuccess(obj);
+            waiterWheel.cancel(waiter);
+            waitersSize = waiters.size();
+            if (autoScalePeriod > 0) {
+                peakQueueDelay = Math.max(peakQueueDelay, System.currentTimeMillis() - waiter.getStartTime());
+            }
         }
+        return waiter;
     }
 
-    private void timeoutObjects() {
-        Collection<T> timeoutIdle = reap(idle, idleTimeout);
-        if (timeoutIdle.size() > 0) {
-            LOGGER.debug(poolName + " disposing " + timeoutIdle.size() + " objects due to timeout");
-            for (T t : timeoutIdle) {
-                destroy(t, false);
+    /**
+     * Remove all waiters and cancel their timeouts. Lock must be acquired before call this method.
+     *
+     * @return the removed waiters.
+     */
+    private List<Callback<T>> drainWaiters() {
+        List<Callback<T>> drained = new ArrayList<>(waiters.size());
+        for (Callback<T> waiter; (waiter = pollWaiter()) != null;) {
+            drained.add(waiter);
+        }
+        return drained;
+    }
+
+    /**
+     * Put a waiter on the timing wheel, and start the wheel if it is not ticking.
+     * Lock must be acquired before call this method.
+     *
+     * @param waiter the waiter.
+     * @param deadline when the waiter times out, in milliseconds.
+     */
+    private void scheduleWaiterTimeout(TimeTrackingCallback<T> waiter, long deadline) {
+        waiterWheel.add(waiter, deadline);
+        startWaiterTick();
+    }
+
+    /**
+     * Start the waiter tick if it is not running, it times out waiters and drives CoDel.
+     * Lock must be acquired before call this method.
+     */
+    private void startWaiterTick() {
+        if (waiterTimeoutFuture == null) {
+            waiterTimeoutFuture = timeoutExecutor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    timeoutWaiters();
+                }
+            }, WAITER_TICK, WAITER_TICK, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Remove the waiters whose timeout elapsed and those the queue discipline sheds in one
+     * batch, and fail them outside the lock.
+     */
+    private void timeoutWaiters() {
+        long now = System.currentTimeMillis();
+        List<TimeTrackingCallback<T>> expired = new ArrayList<>();
+        List<TimeTrackingCallback<T>> shed = new ArrayList<>(0);
+        lock.lock();
+        try {
+            waiterWheel.expire(now, expired);
+            for (TimeTrackingCallback<T> waiter : expired) {
+                waiters.remove(waiter);
+            }
+            shedWaiters(shed);
+            boolean watching = waiters.isCoDel() && !waiters.isEmpty();
+            if (waiterWheel.isEmpty() && !watching && waiterTimeoutFuture != null) {
+                waiterTimeoutFuture.cancel(false);
+                waiterTimeoutFuture = null;
             }
+        } finally {
+            lock.unlock();
+        }
+
+        for (TimeTrackingCallback<T> waiter : expired) {
+            timeouts.record(now);
+            listener.onWaiterTimeout(now - waiter.getStartTime());
+            waiter.onError(new AcquireTimeoutException(poolName + " timed out after waiting "
+                    + (now - waiter.getStartTime()) + "ms"));
         }
+        if (!expired.isEmpty() && state != State.RUNNING) {
+            shutdownIfNeeded();
+        }
+        failShed(shed);
+    }
+
+    /**
+     * Hand an object over to a waiter.
+     *
+     * @param entry the entry of the pool object.
+     * @param waiter the waiter.
+     */
+    private void serve(TimedObject<T> entry, TimeTrackingCallback<T> waiter) {
+        checkOut(entry);
+        waitTimes.record((entry.getCheckoutNanos() - waiter.getStartNanos()) / 1000);
+        waiter.onSuccess(entry.getObj());
     }
 
     /**
-     * Get the queue of timeout objects.
+     * Count an object as checked out.
      *
-     * @param queue the original queue.
-     * @param timeout the timeout.
-     * @return queue of timeout objects.
+     * @param entry the entry of the pool object.
      */
-    private <U> Collection<U> reap(Queue<TimedObject<U>> queue, long timeout) {
-        List<U> timeoutQueue = new ArrayList<>();
+    private void checkOut(TimedObject<T> entry) {
+        int out = checkedOut.incrementAndGet();
+        if (out > peakCheckedOut) {
+            peakCheckedOut = out;
+        }
+        if (predictionPeriod > 0) {
+            arrivals.increment();
+        }
         long now = System.currentTimeMillis();
-        long target = now - timeout;
+        entry.setCheckoutTime(now);
+        entry.setCheckoutNanos(System.nanoTime());
+        acquires.record(now);
+        listener.onBorrow(entry.getObj());
+    }
+
+    /**
+     * Account for how long a returned object was held.
+     *
+     * @param entry the entry of the pool object.
+     */
+    private void checkIn(TimedObject<T> entry) {
+        if (entry.getCheckoutTime() > 0) {
+            long held = System.nanoTime() - entry.getCheckoutNanos();
+            holdTimes.record(held / 1000);
+            if (predictionPeriod > 0) {
+                holdTimeTotal.add(held / 1000000);
+                holdCount.increment();
+            }
+        }
+        // So that the timer never takes an old checkout time for the next holder's.
+        entry.setCheckoutTime(0);
+    }
 
-        synchronized (lock) {
-            int exceed = poolSize - minSize;
-            for (TimedObject<U> p; (p = queue.peek()) != null && p.getTime() < target && exceed > 0; exceed--) {
-                timeoutQueue.add(queue.poll().getObj());
-                totalTimeout ++;
+    /**
+     * Update the demand estimates from the last period and create the objects they call for.
+     */
+    private void predictDemand() {
+        long arrived = arrivals.sumThenReset();
+        long held = holdCount.sumThenReset();
+        long heldTotal = holdTimeTotal.sumThenReset();
+        int create = 0;
+        lock.lock();
+        try {
+            if (state != State.RUNNING) {
+                return;
+            }
+            arrivalRate += PREDICTION_WEIGHT * ((double) arrived / predictionPeriod - arrivalRate);
+            if (held > 0) {
+                holdTime += PREDICTION_WEIGHT * ((double) heldTotal / held - holdTime);
+            }
+            double inUse = arrivalRate * holdTime;
+            predictedSize = (int) Math.min(maxSize, Math.ceil(inUse + Math.sqrt(inUse)));
+            while (shouldCreate()) {
+                create ++;
             }
+        } finally {
+            lock.unlock();
         }
+        for (int i = 0; i < create; i++) {
+            create();
+        }
+    }
+
+    /**
+     * Adjust the effective bounds from the demand of the last period, additive increase
+     * while waiters wait too long, multiplicative decrease while objects sit idle.
+     */
+    private void autoScale() {
+        long now = System.currentTimeMillis();
+        int create = 0;
+        int shrink = -1;
+        lock.lock();
+        try {
+            if (state != State.RUNNING) {
+                return;
+            }
+            long oldest = waiters.oldestStartTime();
+            // Negative if nobody waited at all.
+            long queueDelay = Math.max(peakQueueDelay, oldest == Long.MAX_VALUE ? -1 : now - oldest);
+            int peak = Math.max(peakCheckedOut, checkedOut.get());
+            if (queueDelay > autoScaleTargetWait) {
+                effectiveMaxSize = (int) Math.min(maxSize, (long) effectiveMaxSize + Math.max(1, maxSize / 10));
+            } else if (queueDelay < 0 && peak < effectiveMaxSize) {
+                effectiveMaxSize = Math.max(autoScaleFloor(), Math.max(peak, effectiveMaxSize / 2));
+                shrink = effectiveMaxSize;
+            }
+            effectiveMinSize = Math.min(effectiveMaxSize, Math.max(minSize, peak));
+            peakQueueDelay = -1;
+            peakCheckedOut = checkedOut.get();
 
-        return timeoutQueue;
+            // Serve the waiters the new bound allows for, and refill the min.
+            while (shouldCreate()) {
+                create ++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i < create; i++) {
+            create();
+        }
+        // No more than peak objects were in use, so only idle ones are above the new bound.
+        if (shrink >= 0) {
+            destroyIdle(shrink, false);
+        }
     }
 
-    private static class TimedObject<T> {
+    /**
+     * The lowest effective max size when autoscaling. Lock must be acquired before call this method.
+     *
+     * @return a tenth of maxSize, at least one and minSize, at most maxSize.
+     */
+    private int autoScaleFloor() {
+        return Math.min(maxSize, Math.max(minSize, Math.max(1, maxSize / 10)));
+    }
 
-        private final T obj;
-        private final long time;
+    /**
+     * Whether the object was validated recently enough to skip validateGet.
+     *
+     * @param entry the entry of the pool object.
+     * @return true if fresh.
+     */
+    private boolean isFresh(TimedObject<T> entry) {
+        return validationFreshness > 0
+                && System.currentTimeMillis() - entry.getValidated() <= validationFreshness;
+    }
 
-        private TimedObject(T obj) {
-            this.obj = obj;
-            this.time = System.currentTimeMillis();
+    /**
+     * Take a batch of idle objects which are due for validation out of the idle pool and
+     * validate them. Valid objects go back to idle as if they had never left, so neither
+     * their idle timeout nor their LRU position changes.
+     */
+    private void validateIdle() {
+        long now = System.currentTimeMillis();
+        List<TimedObject<T>> batch = new ArrayList<>();
+        lock.lock();
+        try {
+            if (state != State.RUNNING) {
+                return;
+            }
+            int budget = validationBatch - validating;
+            // Objects just validated are skipped, so the walk moves on to the others.
+            for (Iterator<TimedObject<T>> it = entries.iterator(); budget > 0 && it.hasNext();) {
+                TimedObject<T> entry = it.next();
+                if (entry.isIdle() && now - entry.getValidated() >= validationInterval && entry.tryValidate()) {
+                    idleObjects.decrementAndGet();
+                    batch.add(entry);
+                    budget --;
+                }
+            }
+            validating += batch.size();
+        } finally {
+            lock.unlock();
         }
 
-        public T getObj() {
-            return obj;
+        for (final TimedObject<T> entry : batch) {
+            // Claiming keeps the time the object became idle.
+            final long idleSince = entry.getTime();
+            validator.validate(entry.getObj(), new Callback<Boolean>() {
+                @Override
+                public void onError(Throwable e) {
+                    LOGGER.debug(poolName + " failed to validate an idle object", e);
+                    done(false);
+                }
+
+                @Override
+                public void onSuccess(Boolean valid) {
+                    done(valid != null && valid);
+                }
+
+                private void done(boolean valid) {
+                    lock.lock();
+                    try {
+                        validating --;
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (valid) {
+                        entry.setValidated(System.currentTimeMillis());
+                        entry.release(idleSince);
+                        offerIdle(entry);
+                    } else {
+                        destroy(entry.getObj(), true, true);
+                    }
+                }
+            });
         }
+    }
+
+    /**
+     * Get the number of idle objects.
+     *
+     * @return the number of idle objects.
+     */
+    private int idleCount() {
+        // A claim may be counted before the release it follows, never report that as negative.
+        return Math.max(0, idleObjects.get());
+    }
 
-        public long getTime() {
-            return time;
+    /**
+     * Take an idle entry out of the pool for good.
+     *
+     * @param entry the entry.
+     * @return true if the entry was idle and now belongs to the caller.
+     */
+    private boolean removeIdle(TimedObject<T> entry) {
+        if (entry.tryRemove()) {
+            idleObjects.decrementAndGet();
+            return true;
         }
+        return false;
     }
 
-    private class TimeTrackingCallback<T> implements Callback<T> {
+    /**
+     * Handle the objects whose timer fired. Each live object has exactly one timer on the
+     * entry wheel, which is re-armed lazily here instead of on every put, so the cost is
+     * proportional to the fired timers and not to the number of idle objects.
+     *
+     * An object held past the max hold time is reclaimed, an object past its max lifetime
+     * gets a replacement, an idle object past its idle timeout is destroyed, anything else
+     * is re-armed for the next time it may need us.
+     */
+    private void timeoutObjects() {
+        long now = System.currentTimeMillis();
+        List<TimedObject<T>> fired = new ArrayList<>();
+        List<TimedObject<T>> toReplace = new ArrayList<>();
+        List<T> timeoutIdle = new ArrayList<>();
+        List<TimedObject<T>> reclaimed = new ArrayList<>();
+
+        lock.lock();
+        try {
+            entryWheel.expire(now, fired);
+            // The retired objects go once returned, their replacements are the ones to keep.
+            int exceed = poolSize - retired - Math.max(effectiveMinSize, predictedSize);
+            for (TimedObject<T> entry : fired) {
+                if (entry.isRemoved()) {
+                    continue;
+                }
+                // Stamp before reading the time, so that the claim fails if this checkout
+                // ends, and the object is checked out again, before we get to it.
+                int stamp = entry.getStamp();
+                long checkoutTime = entry.getCheckoutTime();
+                if (maxHoldTime > 0 && checkoutTime > 0 && checkoutTime + maxHoldTime <= now
+                        && entry.tryReturn(stamp)) {
+                    // The stale holder's put will find the entry claimed, and then gone.
+                    reclaimed.add(entry);
+                    continue;
+                }
+                if (maxLifetime > 0 && !entry.isRetiring() && entry.getExpireTime() <= now) {
+                    if (state == State.RUNNING && retiring < maxRetiring) {
+                        // Reserve the slot of the replacement, the old object keeps serving until then.
+                        entry.setRetiring(true);
+                        retiring ++;
+                        poolSize ++;
+                        toReplace.add(entry);
+                        // Max hold still applies while the replacement is created.
+                        if (maxHoldTime > 0) {
+                            entryWheel.add(entry, nextDeadline(entry, now));
+                        }
+                    } else {
+                        // Wait for our turn, on the next tick.
+                        entryWheel.add(entry, now);
+                    }
+                    continue;
+                }
+                // A retiring object goes once its replacement exists, and its reserved slot counts in exceed.
+                if (idleTimeout > 0 && !entry.isRetiring() && entry.getTime() + idleTimeout <= now && exceed > 0
+                        && removeIdle(entry)) {
+                    timeoutIdle.add(entry.getObj());
+                    totalTimeout.increment();
+                    exceed --;
+                    continue;
+                }
+                long deadline = nextDeadline(entry, now);
+                if (deadline != Long.MAX_VALUE) {
+                    entryWheel.add(entry, deadline);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
 
-        private final long startTime;
-        private final Callback<T> callback;
+        for (TimedObject<T> entry : reclaimed) {
+            LOGGER.warn(poolName + " reclaiming an object held for " + (now - entry.getCheckoutTime())
+                    + "ms, longer than " + maxHoldTime + "ms");
+            checkedOut.decrementAndGet();
+            checkIn(entry);
+            destroy(entry.getObj(), true);
+        }
+        for (TimedObject<T> entry : toReplace) {
+            replace(entry);
+        }
+        if (timeoutIdle.size() > 0) {
+            LOGGER.debug(poolName + " disposing " + timeoutIdle.size() + " objects due to timeout");
+            for (T t : timeoutIdle) {
+                destroy(t, false);
+            }
+        }
+    }
 
-        private TimeTrackingCallback(Callback<T> callback) {
-            this.startTime = System.currentTimeMillis();
+    /**
+     * Creates the minSize objects of a starting pool, a bounded number at a time.
+     */
+    private class WarmUp implements Callback<None> {
+
+        private final int parallelism;
+        private final Callback<None> callback;
+        // All guarded by lock.
+        private final List<Throwable> errors = new ArrayList<>();
+        private int launched = 0;
+        private int inFlight = 0;
+        private boolean finished = false;
+
+        WarmUp(int parallelism, Callback<None> callback) {
+            this.parallelism = parallelism;
             this.callback = callback;
         }
 
+        /**
+         * Launch creations while there is room and the pool is short of minSize,
+         * and finish once the last one is done.
+         */
+        void next() {
+            for (;;) {
+                boolean launch = false;
+                boolean finish = false;
+                lock.lock();
+                try {
+                    if (state == State.RUNNING && inFlight < parallelism && launched < minSize && poolSize < minSize) {
+                        poolSize ++;
+                        launched ++;
+                        inFlight ++;
+                        launch = true;
+                    } else if (inFlight == 0 && !finished) {
+                        finished = true;
+                        finish = true;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (!launch) {
+                    if (finish) {
+                        finish();
+                    }
+                    return;
+                }
+                create(this);
+            }
+        }
+
+        private void finish() {
+            final State innerState = state;
+            if (errors.isEmpty() && innerState == State.RUNNING) {
+                callback.onSuccess(None.none());
+                return;
+            }
+            Exception e = errors.isEmpty() ? new IllegalStateException(poolName + " is " + innerState)
+                    : new Exception(poolName + " failed to create " + errors.size() + " of "
+                    + launched + " objects while warming up", errors.get(0));
+            for (int i = 1; i < errors.size(); i++) {
+                e.addSuppressed(errors.get(i));
+            }
+            callback.onError(e);
+        }
+
         @Override
         public void onError(Throwable e) {
-            callback.onError(e);
+            lock.lock();
+            try {
+                inFlight --;
+                errors.add(e);
+            } finally {
+                lock.unlock();
+            }
+            next();
         }
 
         @Override
-        public void onSuccess(T result) {
-            callback.onSuccess(result);
+        public void onSuccess(None result) {
+            lock.lock();
+            try {
+                inFlight --;
+            } finally {
+                lock.unlock();
+            }
+            next();
+        }
+    }
+
+    /**
+     * A create task which is told when a failed create cancels it before it ran.
+     * The pool slot it reserved has been released by then.
+     */
+    private abstract static class CreateTask implements CreateLatch.Task {
+
+        abstract void cancelled(Throwable e);
+    }
+
+    /**
+     * The per-thread list of recently returned entries used by the thread affine
+     * return cache. Only the owning thread touches the list, the entries themselves
+     * are claimed by CAS.
+     */
+    private static final class AffinityList<T> {
+
+        private static final int CAPACITY = 8;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final TimedObject<T>[] entries = new TimedObject[CAPACITY];
+        private int size = 0;
+
+        private void add(TimedObject<T> entry) {
+            for (int i = 0; i < size; i++) {
+                if (entries[i] == entry) {
+                    removeAt(i);
+                    break;
+                }
+            }
+            if (size == CAPACITY) {
+                removeAt(0);
+            }
+            entries[size ++] = entry;
+        }
+
+        private TimedObject<T> claim(boolean newestFirst) {
+            while (size > 0) {
+                int i = newestFirst ? size - 1 : 0;
+                TimedObject<T> entry = entries[i];
+                removeAt(i);
+                // Entries taken by other threads or removed are simply dropped.
+                if (entry.tryClaim()) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        private void removeAt(int i) {
+            System.arraycopy(entries, i + 1, entries, i, size - i - 1);
+            entries[-- size] = null;
         }
     }
 }
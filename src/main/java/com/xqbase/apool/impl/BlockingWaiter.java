@@ -0,0 +1,49 @@
+package com.xqbase.apool.impl;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A waiter which is a parked thread. The pool hands the object over by completing
+ * the waiter, which unparks the thread, there is no future in between.
+ *
+ * @author Tony He
+ */
+class BlockingWaiter<T> extends TimeTrackingCallback<T> {
+
+    private final Thread thread;
+    private T result;
+    private Throwable error;
+    // Written after result or error, so that the waiting thread sees them.
+    private volatile boolean done = false;
+
+    BlockingWaiter(AsyncPoolImpl.Priority priority, long timeout) {
+        super(null, priority, timeout);
+        this.thread = Thread.currentThread();
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    T getResult() throws ExecutionException {
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        error = e;
+        done = true;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void onSuccess(T result) {
+        this.result = result;
+        done = true;
+        LockSupport.unpark(thread);
+    }
+}
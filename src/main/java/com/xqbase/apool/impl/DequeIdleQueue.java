@@ -0,0 +1,76 @@
+package com.xqbase.apool.impl;
+
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link IdleQueue} backed by a {@link ConcurrentLinkedDeque}. Polls and offers
+ * are O(1) but every offer allocates a deque node.
+ *
+ * Removing a node from the middle of the deque is O(n), so a destroyed entry is left
+ * where it is and dropped by poll. Once they add up to half of the nodes, one sweep
+ * unlinks them all, which keeps a removal O(1) amortized even when many objects
+ * expire at once, and keeps dead nodes from piling up where poll never gets to them.
+ *
+ * @author Tony He
+ */
+class DequeIdleQueue<T> implements IdleQueue<T> {
+
+    // Don't sweep small deques for every removal.
+    private static final int MIN_SWEEP = 16;
+
+    private final Deque<TimedObject<T>> idle = new ConcurrentLinkedDeque<>();
+    private final AsyncPoolImpl.Strategy strategy;
+    // The nodes in the deque and the removals since the last sweep, both only a hint.
+    private final AtomicInteger nodes = new AtomicInteger();
+    private final AtomicInteger removed = new AtomicInteger();
+    DequeIdleQueue(AsyncPoolImpl.Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    @Override
+    public boolean offer(TimedObject<T> entry) {
+        if (entry.markQueued()) {
+            nodes.incrementAndGet();
+            idle.offerLast(entry);
+        }
+        return true;
+    }
+
+    @Override
+    public TimedObject<T> poll() {
+        for (;;) {
+            TimedObject<T> entry = strategy == AsyncPoolImpl.Strategy.LRU ? idle.pollFirst() : idle.pollLast();
+            if (entry == null) {
+                return null;
+            }
+            nodes.decrementAndGet();
+            entry.clearQueued();
+            // Skip entries claimed through an affinity list or removed on idle timeout.
+            if (entry.tryClaim()) {
+                return entry;
+            }
+        }
+    }
+
+    @Override
+    public void remove(TimedObject<T> entry) {
+        // The entry is marked removed or retired already, poll skips it until the sweep unlinks it.
+        if (entry.isQueued() && removed.incrementAndGet() >= Math.max(MIN_SWEEP, nodes.get() / 2)) {
+            removed.set(0);
+            sweep();
+        }
+    }
+
+    private void sweep() {
+        for (Iterator<TimedObject<T>> it = idle.iterator(); it.hasNext(); ) {
+            TimedObject<T> entry = it.next();
+            if (entry.isRemoved() || entry.isRetired()) {
+                it.remove();
+                nodes.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.xqbase.apool.impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The entries of the live pool objects, keyed by the identity of the objects.
+ *
+ * Pooled objects may be equal by value, or change their hash code while they are
+ * checked out, so neither equals nor hashCode is ever called. Lookups are lock free
+ * and don't allocate, they run on every put. Adds and removes only run when objects
+ * are created and destroyed and are serialized on the table.
+ *
+ * It is an open addressing table with linear probing. A removed entry leaves a
+ * tombstone behind, so a slot never becomes empty again and a probe never stops
+ * short of an entry; the tombstones are purged when the table is rebuilt.
+ *
+ * @author Tony He
+ */
+final class EntryTable<T> implements Iterable<TimedObject<T>> {
+
+    private static final int MIN_CAPACITY = 16;
+    @SuppressWarnings("rawtypes")
+    private static final TimedObject TOMBSTONE = new TimedObject<>(null);
+
+    private volatile AtomicReferenceArray<TimedObject<T>> table = new AtomicReferenceArray<>(MIN_CAPACITY);
+    // Guarded by this, the live entries and the slots taken by entries or tombstones.
+    private int size = 0;
+    private int used = 0;
+
+    private static int index(Object obj, int mask) {
+        int h = System.identityHashCode(obj);
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Get the entry of a pool object.
+     *
+     * @param obj the pool object.
+     * @return the entry or null if the object is not in the table.
+     */
+    TimedObject<T> get(T obj) {
+        if (obj == null) {
+            return null;
+        }
+        AtomicReferenceArray<TimedObject<T>> t = table;
+        int mask = t.length() - 1;
+        for (int i = index(obj, mask);; i = (i + 1) & mask) {
+            TimedObject<T> entry = t.get(i);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.getObj() == obj) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Add the entry of a pool object, replacing an entry of the same object.
+     *
+     * @param entry the entry.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void put(TimedObject<T> entry) {
+        T obj = entry.getObj();
+        if ((used + 1) * 2 > table.length()) {
+            rebuild();
+        }
+        AtomicReferenceArray<TimedObject<T>> t = table;
+        int mask = t.length() - 1;
+        int free = -1;
+        for (int i = index(obj, mask);; i = (i + 1) & mask) {
+            TimedObject<T> old = t.get(i);
+            if (old == null) {
+                if (free < 0) {
+                    free = i;
+                    used ++;
+                }
+                break;
+            }
+            if (old == TOMBSTONE) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (old.getObj() == obj) {
+                t.set(i, entry);
+                return;
+            }
+        }
+        t.set(free, entry);
+        size ++;
+    }
+
+    /**
+     * Remove the entry of a pool object.
+     *
+     * @param obj the pool object.
+     * @return the removed entry or null if the object is not in the table.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized TimedObject<T> remove(T obj) {
+        if (obj == null) {
+            return null;
+        }
+        AtomicReferenceArray<TimedObject<T>> t = table;
+        int mask = t.length() - 1;
+        for (int i = index(obj, mask);; i = (i + 1) & mask) {
+            TimedObject<T> entry = t.get(i);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.getObj() == obj) {
+                t.set(i, TOMBSTONE);
+                size --;
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Copy the live entries into a new table which is at most a quarter full, and
+     * publish it. Readers still probing the old table find what it held.
+     * Must be called while synchronized on the table.
+     */
+    private void rebuild() {
+        AtomicReferenceArray<TimedObject<T>> t = table;
+        int capacity = MIN_CAPACITY;
+        while (capacity < (size + 1) * 4) {
+            capacity <<= 1;
+        }
+        AtomicReferenceArray<TimedObject<T>> rebuilt = new AtomicReferenceArray<>(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < t.length(); i++) {
+            TimedObject<T> entry = t.get(i);
+            if (entry != null && entry != TOMBSTONE) {
+                int j = index(entry.getObj(), mask);
+                while (rebuilt.get(j) != null) {
+                    j = (j + 1) & mask;
+                }
+                rebuilt.set(j, entry);
+            }
+        }
+        used = size;
+        table = rebuilt;
+    }
+
+    /**
+     * Iterate over the live entries. The iterator is weakly consistent, it may or may
+     * not see the entries added or removed while it runs.
+     *
+     * @return the iterator.
+     */
+    @Override
+    public Iterator<TimedObject<T>> iterator() {
+        final AtomicReferenceArray<TimedObject<T>> t = table;
+        return new Iterator<TimedObject<T>>() {
+            private int index = 0;
+            private TimedObject<T> next = advance();
+
+            private TimedObject<T> advance() {
+                while (index < t.length()) {
+                    TimedObject<T> entry = t.get(index ++);
+                    if (entry != null && entry != TOMBSTONE) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public TimedObject<T> next() {
+                TimedObject<T> entry = next;
+                if (entry == null) {
+                    throw new NoSuchElementException();
+                }
+                next = advance();
+                return entry;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
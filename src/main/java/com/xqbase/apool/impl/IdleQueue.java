@@ -0,0 +1,37 @@
+package com.xqbase.apool.impl;
+
+/**
+ * The idle entries of an {@link AsyncPoolImpl}.
+ *
+ * Implementations are lock free. An entry is only handed out once it has been claimed
+ * through {@link TimedObject#tryClaim()}, and the queue may still hold entries which
+ * were claimed or removed elsewhere, {@link #poll()} skips and drops them.
+ *
+ * @author Tony He
+ */
+interface IdleQueue<T> {
+
+    /**
+     * Offer an entry which just became idle. The entry is not queued twice.
+     *
+     * @param entry the idle entry.
+     * @return false if the queue is full and did not take the entry.
+     */
+    boolean offer(TimedObject<T> entry);
+
+    /**
+     * Poll and claim an idle entry according to the {@link AsyncPoolImpl.Strategy}.
+     *
+     * @return the claimed entry or null if there is none.
+     */
+    TimedObject<T> poll();
+
+    /**
+     * Drop an entry which is being destroyed, it is marked removed already, or retired,
+     * it is never offered again. Implementations may leave it for {@link #poll()} to
+     * skip, but must not let such entries pile up.
+     *
+     * @param entry the entry.
+     */
+    void remove(TimedObject<T> entry);
+}
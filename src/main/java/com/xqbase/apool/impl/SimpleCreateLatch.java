@@ -1,6 +1,7 @@
 package com.xqbase.apool.impl;
 
 import com.xqbase.apool.CreateLatch;
+import com.xqbase.apool.PoolListener;
 import com.xqbase.apool.callback.SimpleCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,9 +28,10 @@ public class SimpleCreateLatch implements CreateLatch {
     private final Queue<Task> pendingTasks = new LinkedList<>();
     private final int maxPeriod;
     private final int minPeriod;
-    private long period;
+    private volatile long period;
     private int runningTasks;
     private ScheduledFuture<?> task;
+    private volatile PoolListener<?> listener = PoolListener.noop();
 
     private SimpleCallback callback = new SimpleCallback() {
         @Override
@@ -70,21 +72,39 @@ public class SimpleCreateLatch implements CreateLatch {
         this.maxRunningTasks = maxRunningTasks;
     }
 
+    /**
+     * Tell the given listener about the creates this latch holds back. A hook which
+     * throws is logged.
+     *
+     * @param listener the listener.
+     */
+    @Override
+    public void setListener(PoolListener<?> listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Invalid pool listener null");
+        }
+        this.listener = PoolListener.guard("Create latch", listener);
+    }
+
     @Override
     public void submit(Task t) {
         boolean runNow = false;
+        int pending = 0;
         synchronized (this) {
             if (period == 0 && pendingTasks.isEmpty() && runningTasks < maxRunningTasks) {
                 runningTasks ++;
                 runNow = true;
             } else {
                 pendingTasks.add(t);
+                pending = pendingTasks.size();
                 schedule();
             }
         }
 
         if (runNow) {
             t.run(callback);
+        } else {
+            listener.onCreateDelayed(pending);
         }
     }
 
@@ -92,6 +112,10 @@ public class SimpleCreateLatch implements CreateLatch {
     public void setPeriod(long ms) {
         Long previous;
         ms = Math.min(maxPeriod, Math.max(minPeriod, ms));
+        // put resets the period on every return, don't take the monitor when nothing changes.
+        if (ms == period) {
+            return;
+        }
         synchronized (this) {
             if (ms != period) {
                 previous = period;
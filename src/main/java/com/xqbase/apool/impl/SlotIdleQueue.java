@@ -0,0 +1,247 @@
+package com.xqbase.apool.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An {@link IdleQueue} backed by a preallocated ring of slots, so neither offer nor
+ * poll allocates.
+ *
+ * An occupancy bitmap tells which slots hold an entry. Offer claims the first free
+ * slot from the tail cursor on and moves the tail past it. Under
+ * {@link AsyncPoolImpl.Strategy#LRU} poll takes the first entry from the head cursor
+ * on, the oldest one, and under {@link AsyncPoolImpl.Strategy#MRU} the last one
+ * before the tail, the newest one. Either way the cursor moves to where the entry
+ * was, so the slots poll skips are free ones it never looks at again until offers
+ * fill them, and both take a single CAS in the common case. The free slots are
+ * skipped 64 at a time.
+ *
+ * The cursors are only hints, concurrent offers and polls may cross each other, and
+ * an entry removed from the middle leaves a hole which a later offer fills once the
+ * tail wraps around. The order is then approximate, never wrong about which entries
+ * are idle.
+ *
+ * The capacity must cover every live pool object, since each of them takes at most
+ * one slot. Offer only refuses an entry when it does not.
+ *
+ * @author Tony He
+ */
+class SlotIdleQueue<T> implements IdleQueue<T> {
+
+    private final AtomicReferenceArray<TimedObject<T>> slots;
+    // One bit per slot, set from the moment offer claims the slot until poll or remove frees it.
+    private final AtomicLongArray occupied;
+    // The claimed slots, counted up before the entry is published, so poll returns at once when it is 0.
+    private final AtomicInteger size = new AtomicInteger();
+    private final boolean newestFirst;
+    // The slot after the newest entry, where offer starts looking for a free slot.
+    private volatile int tail = 0;
+    // The slot of the oldest entry, where an LRU poll starts looking for one.
+    private volatile int head = 0;
+
+    SlotIdleQueue(int capacity, AsyncPoolImpl.Strategy strategy) {
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.occupied = new AtomicLongArray((capacity + 63) >>> 6);
+        this.newestFirst = strategy == AsyncPoolImpl.Strategy.MRU;
+    }
+
+    @Override
+    public boolean offer(TimedObject<T> entry) {
+        if (!entry.markQueued()) {
+            // Still queued from an earlier checkout, move it to the newest end. If it is not
+            // in its slot, a poll took it out meanwhile and hands it out again.
+            int old = entry.getSlot();
+            if (!slots.compareAndSet(old, entry, null)) {
+                return true;
+            }
+            size.decrementAndGet();
+            freeSlot(old);
+        }
+        int slot = claimSlot();
+        if (slot < 0) {
+            entry.clearQueued();
+            return false;
+        }
+        entry.setSlot(slot);
+        tail = next(slot);
+        size.incrementAndGet();
+        // Publish the entry last, poll skips a claimed slot until then.
+        slots.set(slot, entry);
+        return true;
+    }
+
+    @Override
+    public TimedObject<T> poll() {
+        int capacity = slots.length();
+        int from = newestFirst ? prev(tail) : head;
+        // Give up after one lap, the claimed slots may not be published yet.
+        for (int scanned = 0; size.get() > 0; ) {
+            int slot = newestFirst ? lastOccupied(from) : firstOccupied(from);
+            if (slot < 0) {
+                return null;
+            }
+            scanned += (newestFirst ? from - slot + capacity : slot - from + capacity) % capacity + 1;
+            if (scanned > capacity) {
+                return null;
+            }
+            TimedObject<T> entry = slots.get(slot);
+            if (entry != null && slots.compareAndSet(slot, entry, null)) {
+                size.decrementAndGet();
+                freeSlot(slot);
+                if (newestFirst) {
+                    tail = slot;
+                } else {
+                    head = next(slot);
+                }
+                entry.clearQueued();
+                // Skip entries claimed through an affinity list or removed on idle timeout.
+                if (entry.tryClaim()) {
+                    return entry;
+                }
+            }
+            from = newestFirst ? prev(slot) : next(slot);
+        }
+        return null;
+    }
+
+    @Override
+    public void remove(TimedObject<T> entry) {
+        int slot = entry.getSlot();
+        if (entry.isQueued() && slots.compareAndSet(slot, entry, null)) {
+            size.decrementAndGet();
+            freeSlot(slot);
+        }
+    }
+
+    /**
+     * Claim the first free slot from the tail on. If there is none, drop the removed
+     * and retired entries which a remove missed, and look again.
+     *
+     * @return the claimed slot or -1 if all slots are taken.
+     */
+    private int claimSlot() {
+        int slot = claimFreeSlot(tail);
+        if (slot < 0 && sweepRemoved()) {
+            slot = claimFreeSlot(tail);
+        }
+        return slot;
+    }
+
+    /**
+     * Claim the first free slot from a slot on, wrapping around.
+     *
+     * @param from the slot to start with.
+     * @return the claimed slot or -1 if all slots are taken.
+     */
+    private int claimFreeSlot(int from) {
+        int words = occupied.length();
+        int start = from >>> 6;
+        for (int i = 0; i <= words; i++) {
+            int word = (start + i) % words;
+            // The bits below the cursor in its word come last, the bits past the capacity never.
+            long valid = validBits(word) & (i == 0 ? -1L << (from & 63) : i == words ? ~(-1L << (from & 63)) : -1L);
+            for (;;) {
+                long bits = occupied.get(word);
+                long free = ~bits & valid;
+                if (free == 0) {
+                    break;
+                }
+                long bit = Long.lowestOneBit(free);
+                if (occupied.compareAndSet(word, bits, bits | bit)) {
+                    return (word << 6) + Long.numberOfTrailingZeros(bit);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Free the slots of removed and retired entries, which a remove racing with their
+     * offer missed.
+     *
+     * @return true if any slot was freed.
+     */
+    private boolean sweepRemoved() {
+        boolean swept = false;
+        for (int slot = 0, capacity = slots.length(); slot < capacity; slot++) {
+            TimedObject<T> entry = slots.get(slot);
+            if (entry != null && (entry.isRemoved() || entry.isRetired()) && slots.compareAndSet(slot, entry, null)) {
+                size.decrementAndGet();
+                freeSlot(slot);
+                swept = true;
+            }
+        }
+        return swept;
+    }
+
+    /**
+     * Find the first occupied slot from a slot on, wrapping around.
+     *
+     * @param from the slot to start with.
+     * @return the occupied slot or -1 if there is none.
+     */
+    private int firstOccupied(int from) {
+        int words = occupied.length();
+        int start = from >>> 6;
+        for (int i = 0; i <= words; i++) {
+            int word = (start + i) % words;
+            long mask = i == 0 ? -1L << (from & 63) : i == words ? ~(-1L << (from & 63)) : -1L;
+            long bits = occupied.get(word) & mask;
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the last occupied slot up to a slot, wrapping around.
+     *
+     * @param from the slot to start with.
+     * @return the occupied slot or -1 if there is none.
+     */
+    private int lastOccupied(int from) {
+        int words = occupied.length();
+        int start = from >>> 6;
+        for (int i = 0; i <= words; i++) {
+            int word = (start - i % words + words) % words;
+            long below = (from & 63) == 63 ? -1L : (1L << ((from & 63) + 1)) - 1;
+            long mask = i == 0 ? below : i == words ? ~below : -1L;
+            long bits = occupied.get(word) & mask;
+            if (bits != 0) {
+                return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+            }
+        }
+        return -1;
+    }
+
+    private long validBits(int word) {
+        int capacity = slots.length();
+        return word == occupied.length() - 1 && (capacity & 63) != 0 ? (1L << (capacity & 63)) - 1 : -1L;
+    }
+
+    private int next(int slot) {
+        return slot + 1 == slots.length() ? 0 : slot + 1;
+    }
+
+    private int prev(int slot) {
+        return slot == 0 ? slots.length() - 1 : slot - 1;
+    }
+
+    /**
+     * Free a slot whose entry has just been taken out.
+     *
+     * @param slot the slot.
+     */
+    private void freeSlot(int slot) {
+        int word = slot >>> 6;
+        long bit = 1L << (slot & 63);
+        for (;;) {
+            long bits = occupied.get(word);
+            if (occupied.compareAndSet(word, bits, bits & ~bit)) {
+                return;
+            }
+        }
+    }
+}
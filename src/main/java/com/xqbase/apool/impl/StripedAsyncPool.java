@@ -0,0 +1,840 @@
+package com.xqbase.apool.impl;
+
+import com.xqbase.apool.AsyncPool;
+import com.xqbase.apool.CreateLatch;
+import com.xqbase.apool.LifeCycle;
+import com.xqbase.apool.callback.Callback;
+import com.xqbase.apool.callback.SimpleCallback;
+import com.xqbase.apool.exceptions.AcquireTimeoutException;
+import com.xqbase.apool.exceptions.SizeLimitExceededException;
+import com.xqbase.apool.stats.AsyncPoolStats;
+import com.xqbase.apool.stats.LatencyHistogram;
+import com.xqbase.apool.stats.PoolStats;
+import com.xqbase.apool.stats.RateWindow;
+import com.xqbase.apool.stats.StatsVisitor;
+import com.xqbase.apool.util.Cancellable;
+import com.xqbase.apool.util.HashedTimingWheel;
+import com.xqbase.apool.util.LinkedDeque;
+import com.xqbase.apool.util.None;
+import com.xqbase.apool.util.ThreadProbe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An Async Pool split into stripes.
+ *
+ * Each stripe has its own idle deque, waiter queue and lock, while maxSize, minSize
+ * and the statistics are shared by all stripes. A thread works on its home stripe
+ * first, steals idle objects from the neighbouring stripes, and only then enqueues
+ * itself as a waiter on its home stripe. Returned objects go to the home stripe of
+ * the returning thread, or to a waiter of any stripe if there is one.
+ *
+ * The home stripe of a thread comes from a random per-thread probe rather than from
+ * the thread id, so threads started together don't cluster on the same stripes, and
+ * a thread which finds its home stripe locked moves on to another home stripe.
+ *
+ * Like {@link AsyncPoolImpl}, every live object has one entry, found by identity, whose
+ * state is claimed by CAS, so a second put or dispose of an object, or one of an object
+ * the pool does not own, is ignored.
+ *
+ * The maxWaiters limit is checked per stripe against the shared waiter count, so
+ * concurrent gets on different stripes may exceed it by up to the number of stripes.
+ *
+ * Objects are validated synchronously on get and put, a {@link LifeCycle} which asks
+ * for {@link LifeCycle#isAsyncValidation()} is rejected, use {@link AsyncPoolImpl} for it.
+ *
+ * @author Tony He
+ */
+public class StripedAsyncPool<T> implements AsyncPool<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StripedAsyncPool.class);
+
+    // Resolution and size of the waiter timing wheels.
+    private static final long WAITER_TICK = 10;
+    private static final int WAITER_WHEEL_SIZE = 512;
+
+    // Configured
+    private final String poolName;
+    private final int maxSize;
+    private final int minSize;
+    private final int maxWaiters;
+    private final long idleTimeout;
+    private final ScheduledExecutorService timeoutExecutor;
+    private volatile ScheduledFuture<?> objectTimeoutFuture;
+    private final ExecutorService callbackExecutor;
+    private final LifeCycle<T> lifeCycle;
+    private final CreateLatch createLatch;
+    private final AsyncPoolImpl.Strategy strategy;
+    private final Stripe<T>[] stripes;
+
+    private enum State { NOT_YET_STARTED, RUNNING, SHUTTING_DOWN, STOPPED }
+
+    // Guards the state transitions only, the stripes have their own locks.
+    private final Object stateLock = new Object();
+    private volatile State state = State.NOT_YET_STARTED;
+    private Callback<None> shutdownCallback = null;
+    // Started by the first get with a timeout, it ticks the wheels of all stripes.
+    private volatile ScheduledFuture<?> waiterTimeoutFuture = null;
+
+    private final AtomicInteger poolSize = new AtomicInteger();
+    private final AtomicInteger waitersSize = new AtomicInteger();
+    private final AtomicInteger checkedOut = new AtomicInteger();
+    // Lock free lookups, the entries of the live pool objects.
+    private final EntryTable<T> entries = new EntryTable<>();
+
+    private final LongAdder totalCreated = new LongAdder();
+    private final LongAdder totalDestroyed = new LongAdder();
+    private final LongAdder totalCreateErrors = new LongAdder();
+    private final LongAdder totalDestroyErrors = new LongAdder();
+    private final LongAdder totalBadDestroyed = new LongAdder();
+    private final LongAdder totalTimeout = new LongAdder();
+    // Lock free, in microseconds.
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final LatencyHistogram createTimes = new LatencyHistogram();
+    private final LatencyHistogram holdTimes = new LatencyHistogram();
+    private final LatencyHistogram destroyTimes = new LatencyHistogram();
+    // Lock free, events per second over the last minute.
+    private final RateWindow acquires = new RateWindow();
+    private final RateWindow creates = new RateWindow();
+    private final RateWindow createErrors = new RateWindow();
+    private final RateWindow timeouts = new RateWindow();
+    private final RateWindow rejects = new RateWindow();
+
+    // Construct a Striped Async Pool with one stripe per available processor.
+    public StripedAsyncPool(String poolName,
+                int maxSize,
+                long idleTimeout,
+                LifeCycle<T> lifeCycle,
+                ScheduledExecutorService timeoutExecutor) {
+        this(poolName, maxSize, idleTimeout, lifeCycle, timeoutExecutor, timeoutExecutor, Integer.MAX_VALUE,
+                0, new NoopCreateLatch(), AsyncPoolImpl.Strategy.LRU, Runtime.getRuntime().availableProcessors());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public StripedAsyncPool(String poolName,
+                int maxSize,
+                long idleTimeout,
+                LifeCycle<T> lifeCycle,
+                ScheduledExecutorService timeoutExecutor,
+                ExecutorService callbackExecutor,
+                int maxWaiters,
+                int minSize,
+                CreateLatch createLatch,
+                AsyncPoolImpl.Strategy strategy,
+                int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("stripeCount must be positive: " + stripeCount);
+        }
+        if (lifeCycle.isAsyncValidation()) {
+            throw new IllegalArgumentException(poolName + " validates synchronously, the life cycle validates asynchronously");
+        }
+        this.poolName = poolName;
+        this.maxSize = maxSize;
+        this.minSize = minSize;
+        this.maxWaiters = maxWaiters;
+        this.idleTimeout = idleTimeout;
+        this.timeoutExecutor = timeoutExecutor;
+        this.callbackExecutor = callbackExecutor;
+        this.lifeCycle = lifeCycle;
+        this.createLatch = createLatch;
+        this.strategy = strategy;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe<>(i);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return poolName;
+    }
+
+    @Override
+    public void start() {
+        synchronized (stateLock) {
+            if (state != State.NOT_YET_STARTED) {
+                throw new IllegalStateException(poolName + " is " + state);
+            }
+            state = State.RUNNING;
+            if (idleTimeout > 0) {
+                long freq = Math.min(idleTimeout, 1000);
+                objectTimeoutFuture = timeoutExecutor.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        timeoutObjects();
+                    }
+                }, freq, freq, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        // make the minimum required number of objects now, spread over the stripes
+        for (int i = 0; i < minSize; i++) {
+            if (shouldCreate()) {
+                create(stripes[i % stripes.length]);
+            }
+        }
+    }
+
+    @Override
+    public Cancellable get(Callback<T> callback) {
+        return get(callback, -1);
+    }
+
+    @Override
+    public Cancellable get(Callback<T> callback, long timeout, TimeUnit unit) {
+        return get(callback, Math.max(unit.toMillis(timeout), 0));
+    }
+
+    /**
+     * Get an object from the pool.
+     *
+     * @param callback the callback to receive the checked out object.
+     * @param timeout the maximum time to wait in milliseconds, negative to wait forever.
+     * @return A {@link Cancellable} to cancel the pending get request.
+     */
+    private Cancellable get(Callback<T> callback, long timeout) {
+        final Stripe<T> home = homeStripe();
+
+        for (;;) {
+            final State innerState = state;
+            if (innerState != State.RUNNING) {
+                callback.onError(new IllegalStateException(poolName + " is " + innerState));
+                return null;
+            }
+            // Don't overtake the queued waiters, the next idle object is theirs.
+            if (waitersSize.get() > 0) {
+                break;
+            }
+            TimedObject<T> entry = pollIdle(home);
+            if (entry == null) {
+                break;
+            }
+            T rawObj = entry.getObj();
+            if (lifeCycle.validateGet(rawObj)) {
+                checkOut(entry);
+                callback.onSuccess(rawObj);
+                return null;
+            }
+
+            // The raw object is invalidate
+            destroy(rawObj, true);
+        }
+
+        final TimeTrackingCallback<T> waiter = new TimeTrackingCallback<>(callback, timeout);
+        final LinkedDeque.Node<TimeTrackingCallback<T>> node;
+        lockHome(home);
+        try {
+            if (waitersSize.get() < maxWaiters) {
+                node = home.waiters.addLastNode(waiter);
+                waiter.setNode(node);
+                waitersSize.incrementAndGet();
+                if (timeout >= 0) {
+                    home.wheel.add(waiter, waiter.getDeadline());
+                }
+            } else {
+                node = null;
+            }
+        } finally {
+            home.lock.unlock();
+        }
+        if (node == null) {
+            rejects.record(System.currentTimeMillis());
+            callback.onError(new SizeLimitExceededException("APool " + poolName + " exceeded max waiter size: " + maxWaiters));
+            return null;
+        }
+        if (timeout >= 0 && waiterTimeoutFuture == null) {
+            startWaiterTimeouts();
+        }
+
+        // An object may have been returned to any stripe after we looked at it but
+        // before the waiter became visible, hand it over now.
+        serveWaiters(home);
+
+        if (shouldCreate()) {
+            create(home);
+        }
+        return new Cancellable() {
+            @Override
+            public boolean cancel() {
+                home.lock.lock();
+                try {
+                    if (home.waiters.removeNode(node) != null) {
+                        home.wheel.cancel(waiter);
+                        waitersSize.decrementAndGet();
+                        return true;
+                    }
+                    return false;
+                } finally {
+                    home.lock.unlock();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void put(T obj) {
+        TimedObject<T> entry = entries.get(obj);
+        if (entry == null || !entry.tryReturn()) {
+            LOGGER.warn(poolName + " ignoring put of an object which is not checked out");
+            return;
+        }
+        checkIn(entry);
+        if (!lifeCycle.validatePut(obj)) {
+            destroy(obj, true);
+            return;
+        }
+        createLatch.setPeriod(0);
+        add(entry, homeStripe());
+    }
+
+    @Override
+    public void dispose(T obj) {
+        TimedObject<T> entry = entries.get(obj);
+        if (entry == null || !entry.tryReturn()) {
+            LOGGER.warn(poolName + " ignoring dispose of an object which is not checked out");
+            return;
+        }
+        checkIn(entry);
+        destroy(obj, true);
+    }
+
+    @Override
+    public void shutdown(Callback<None> callback) {
+        final State innerState;
+
+        synchronized (stateLock) {
+            innerState = state;
+
+            if (innerState == State.RUNNING) {
+                state = State.SHUTTING_DOWN;
+                shutdownCallback = callback;
+            }
+        }
+
+        if (innerState != State.RUNNING) {
+            callback.onError(new IllegalStateException(poolName + " is in State: " + innerState));
+            return;
+        }
+
+        shutdownIfNeeded();
+    }
+
+    @Override
+    public Collection<Callback<T>> cancelWaiters() {
+        List<Callback<T>> cancelWaiters = new ArrayList<>();
+        for (Stripe<T> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                for (Callback<T> waiter; (waiter = stripe.pollWaiter()) != null;) {
+                    waitersSize.decrementAndGet();
+                    cancelWaiters.add(waiter);
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return cancelWaiters;
+    }
+
+    @Override
+    public PoolStats getStats() {
+        return new AsyncPoolStats(
+            poolName,
+            maxSize,
+            minSize,
+            poolSize.get(),
+            totalCreated.sum(),
+            totalCreateErrors.sum(),
+            totalDestroyed.sum(),
+            totalDestroyErrors.sum(),
+            totalBadDestroyed.sum(),
+            totalTimeout.sum(),
+            checkedOut.get(),
+            idleCount(),
+            waitTimes.snapshot(),
+            createTimes.snapshot(),
+            holdTimes.snapshot(),
+            destroyTimes.snapshot(),
+            acquires.snapshot(),
+            creates.snapshot(),
+            createErrors.snapshot(),
+            timeouts.snapshot(),
+            rejects.snapshot()
+        );
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void visitStats(StatsVisitor visitor) {
+        visitor.visitPool(poolName);
+        visitor.visitGauge(StatsVisitor.Gauge.MAX_POOL_SIZE, maxSize);
+        visitor.visitGauge(StatsVisitor.Gauge.MIN_POOL_SIZE, minSize);
+        visitor.visitGauge(StatsVisitor.Gauge.POOL_SIZE, poolSize.get());
+        visitor.visitGauge(StatsVisitor.Gauge.CHECKED_OUT, checkedOut.get());
+        visitor.visitGauge(StatsVisitor.Gauge.IDLE_COUNT, idleCount());
+        visitor.visitCounter(StatsVisitor.Counter.CREATED, totalCreated.sum());
+        visitor.visitCounter(StatsVisitor.Counter.CREATE_ERRORS, totalCreateErrors.sum());
+        visitor.visitCounter(StatsVisitor.Counter.DESTROYED, totalDestroyed.sum());
+        visitor.visitCounter(StatsVisitor.Counter.DESTROY_ERRORS, totalDestroyErrors.sum());
+        visitor.visitCounter(StatsVisitor.Counter.BAD_DESTROYED, totalBadDestroyed.sum());
+        visitor.visitCounter(StatsVisitor.Counter.TIMEOUT, totalTimeout.sum());
+        waitTimes.accept(visitor, StatsVisitor.Latency.WAIT);
+        createTimes.accept(visitor, StatsVisitor.Latency.CREATE);
+        holdTimes.accept(visitor, StatsVisitor.Latency.HOLD);
+        destroyTimes.accept(visitor, StatsVisitor.Latency.DESTROY);
+        acquires.accept(visitor, StatsVisitor.Rate.ACQUIRE);
+        creates.accept(visitor, StatsVisitor.Rate.CREATE);
+        createErrors.accept(visitor, StatsVisitor.Rate.CREATE_ERROR);
+        timeouts.accept(visitor, StatsVisitor.Rate.TIMEOUT);
+        rejects.accept(visitor, StatsVisitor.Rate.REJECT);
+    }
+
+    private void shutdownIfNeeded() {
+        Callback<None> done = null;
+        synchronized (stateLock) {
+            if (state == State.SHUTTING_DOWN && waitersSize.get() == 0 && idleCount() == poolSize.get()) {
+                state = State.STOPPED;
+                done = shutdownCallback;
+                shutdownCallback = null;
+            }
+        }
+
+        if (done != null) {
+            Future<?> future = objectTimeoutFuture;
+            if (future != null) {
+                future.cancel(false);
+            }
+            future = waiterTimeoutFuture;
+            if (future != null) {
+                future.cancel(false);
+            }
+            done.onSuccess(None.none());
+        }
+    }
+
+    private void startWaiterTimeouts() {
+        synchronized (stateLock) {
+            if (waiterTimeoutFuture == null) {
+                waiterTimeoutFuture = timeoutExecutor.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        timeoutWaiters();
+                    }
+                }, WAITER_TICK, WAITER_TICK, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Remove the waiters whose timeout elapsed, one batch per stripe, and fail them outside the locks.
+     */
+    private void timeoutWaiters() {
+        long now = System.currentTimeMillis();
+        List<TimeTrackingCallback<T>> expired = new ArrayList<>();
+        for (Stripe<T> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                int from = expired.size();
+                stripe.wheel.expire(now, expired);
+                for (int i = from; i < expired.size(); i++) {
+                    stripe.waiters.removeNode(expired.get(i).getNode());
+                    waitersSize.decrementAndGet();
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        for (TimeTrackingCallback<T> waiter : expired) {
+            timeouts.record(now);
+            waiter.onError(new AcquireTimeoutException(poolName + " timed out after waiting "
+                    + (now - waiter.getStartTime()) + "ms"));
+        }
+        if (!expired.isEmpty() && state != State.RUNNING) {
+            shutdownIfNeeded();
+        }
+    }
+
+    /**
+     * Whether another object creation should be initiated.
+     *
+     * @return true if another object create should be initiated.
+     */
+    public boolean shouldCreate() {
+        for (;;) {
+            int size = poolSize.get();
+            if (state != State.RUNNING || size >= maxSize || (waitersSize.get() == 0 && size >= minSize)) {
+                return false;
+            }
+            if (poolSize.compareAndSet(size, size + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The real object creation method, the new object goes to the given stripe.
+     *
+     * @param stripe the stripe which asked for the object.
+     */
+    private void create(final Stripe<T> stripe) {
+        createLatch.submit(new CreateLatch.Task() {
+            @Override
+            public void run(final SimpleCallback callback) {
+                final long createStart = System.nanoTime();
+                lifeCycle.create(new Callback<T>() {
+                    @Override
+                    public void onError(final Throwable e) {
+                        createLatch.incrementPeriod();
+                        // Same as AsyncPoolImpl, deny all waiters of all stripes and
+                        // cancel the pending creates so that they see the real cause.
+                        final Collection<CreateLatch.Task> pendingTasks = createLatch.cancelPendingTasks();
+                        totalCreateErrors.increment();
+                        createErrors.record(System.currentTimeMillis());
+                        objectDestroyed(1 + pendingTasks.size());
+                        final Collection<Callback<T>> waitersDenied = cancelWaiters();
+
+                        callbackExecutor.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                for (Callback<T> waiter : waitersDenied) {
+                                    waiter.onError(e);
+                                }
+                            }
+                        });
+
+                        if (shouldCreate()) {
+                            create(stripe);
+                        }
+                        callback.onDone();
+                    }
+
+                    @Override
+                    public void onSuccess(T result) {
+                        totalCreated.increment();
+                        creates.record(System.currentTimeMillis());
+                        createTimes.record((System.nanoTime() - createStart) / 1000);
+                        TimedObject<T> entry = new TimedObject<>(result);
+                        entries.put(entry);
+                        add(entry, stripe);
+                        callback.onDone();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Destroy the pool object.
+     *
+     * @param obj the pool object to be destroyed.
+     * @param bad whether the being destroyed pool object is bad or not.
+     */
+    private void destroy(T obj, boolean bad) {
+        TimedObject<T> entry = entries.remove(obj);
+        if (entry != null) {
+            entry.remove();
+        }
+        if (bad) {
+            createLatch.incrementPeriod();
+            totalBadDestroyed.increment();
+        }
+        final long destroyStart = System.nanoTime();
+        lifeCycle.destroy(obj, bad, new Callback<T>() {
+            @Override
+            public void onError(Throwable e) {
+                totalDestroyErrors.increment();
+                destroyed();
+            }
+
+            @Override
+            public void onSuccess(T result) {
+                totalDestroyed.increment();
+                destroyed();
+            }
+
+            private void destroyed() {
+                destroyTimes.record((System.nanoTime() - destroyStart) / 1000);
+                objectDestroyed(1);
+                if (shouldCreate()) {
+                    create(homeStripe());
+                }
+                if (state != State.RUNNING) {
+                    shutdownIfNeeded();
+                }
+            }
+        });
+    }
+
+    private void objectDestroyed(int num) {
+        for (;;) {
+            int size = poolSize.get();
+            if (poolSize.compareAndSet(size, Math.max(size - num, 0))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add the newly created or returned object to a waiter of any stripe,
+     * or to the idle deque of the given stripe.
+     *
+     * @param entry the entry of the pool object, new or claimed for return.
+     * @param stripe the stripe the object should idle on.
+     */
+    private void add(TimedObject<T> entry, Stripe<T> stripe) {
+        entry.release();
+        if (waitersSize.get() > 0) {
+            TimeTrackingCallback<T> waiter = pollWaiter(stripe);
+            if (waiter != null) {
+                // Nobody else can see the entry yet, so the claim always succeeds.
+                entry.tryClaim();
+                serve(entry, waiter);
+                return;
+            }
+        }
+
+        lockHome(stripe);
+        try {
+            stripe.idle.offerLast(entry);
+            stripe.idleSize = stripe.idle.size();
+        } finally {
+            stripe.lock.unlock();
+        }
+
+        // The waiter enqueues itself before it looks at the idle deques again, and we
+        // offer before we check waitersSize, so at least one side sees the other.
+        if (waitersSize.get() > 0) {
+            serveWaiters(stripe);
+        }
+        if (state != State.RUNNING) {
+            shutdownIfNeeded();
+        }
+    }
+
+    /**
+     * Hand idle objects of any stripe over to waiters of any stripe until either runs out.
+     *
+     * @param home the stripe to start with.
+     */
+    private void serveWaiters(Stripe<T> home) {
+        for (;;) {
+            TimedObject<T> obj = pollIdle(home);
+            if (obj == null) {
+                return;
+            }
+            TimeTrackingCallback<T> waiter = pollWaiter(home);
+            if (waiter == null) {
+                // The waiters were served, cancelled or timed out elsewhere, put the object back.
+                home.lock.lock();
+                try {
+                    obj.release(obj.getTime());
+                    home.idle.offerFirst(obj);
+                    home.idleSize = home.idle.size();
+                } finally {
+                    home.lock.unlock();
+                }
+                // A waiter which enqueued while we held the object may have missed it. It
+                // is counted before it looks at the idle deques, so it is visible to us now.
+                if (waitersSize.get() == 0) {
+                    return;
+                }
+                continue;
+            }
+            serve(obj, waiter);
+        }
+    }
+
+    /**
+     * Hand an object over to a waiter.
+     *
+     * @param entry the entry of the pool object.
+     * @param waiter the waiter.
+     */
+    private void serve(TimedObject<T> entry, TimeTrackingCallback<T> waiter) {
+        checkOut(entry);
+        waitTimes.record((entry.getCheckoutNanos() - waiter.getStartNanos()) / 1000);
+        waiter.onSuccess(entry.getObj());
+    }
+
+    /**
+     * Count an object as checked out.
+     *
+     * @param entry the entry of the pool object.
+     */
+    private void checkOut(TimedObject<T> entry) {
+        checkedOut.incrementAndGet();
+        acquires.record(System.currentTimeMillis());
+        entry.setCheckoutNanos(System.nanoTime());
+    }
+
+    /**
+     * Count an object as returned and account for how long it was held.
+     *
+     * @param entry the entry of the pool object.
+     */
+    private void checkIn(TimedObject<T> entry) {
+        checkedOut.decrementAndGet();
+        holdTimes.record((System.nanoTime() - entry.getCheckoutNanos()) / 1000);
+    }
+
+    /**
+     * Poll an idle object from the home stripe, or steal one from the other stripes.
+     *
+     * @param home the home stripe.
+     * @return the claimed entry or null if all stripes are empty.
+     */
+    private TimedObject<T> pollIdle(Stripe<T> home) {
+        int start = home.index;
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe<T> stripe = stripes[(start + i) % stripes.length];
+            if (stripe.idleSize == 0) {
+                continue;
+            }
+            if (i == 0) {
+                lockHome(stripe);
+            } else {
+                stripe.lock.lock();
+            }
+            try {
+                TimedObject<T> obj = strategy == AsyncPoolImpl.Strategy.LRU
+                        ? stripe.idle.pollFirst() : stripe.idle.pollLast();
+                if (obj != null) {
+                    stripe.idleSize = stripe.idle.size();
+                    // An entry sits in one idle deque at most, and only while it is idle.
+                    obj.tryClaim();
+                    return obj;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Poll the first waiter from the home stripe, or from the other stripes.
+     *
+     * @param home the home stripe.
+     * @return the waiter or null if there is none.
+     */
+    private TimeTrackingCallback<T> pollWaiter(Stripe<T> home) {
+        int start = home.index;
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe<T> stripe = stripes[(start + i) % stripes.length];
+            stripe.lock.lock();
+            try {
+                TimeTrackingCallback<T> waiter = stripe.pollWaiter();
+                if (waiter != null) {
+                    waitersSize.decrementAndGet();
+                    return waiter;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return null;
+    }
+
+    private Stripe<T> homeStripe() {
+        return stripes[(ThreadProbe.get() & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    /**
+     * Lock the home stripe of the calling thread. If another thread holds it, the calling
+     * thread rehashes its probe, so that it works on another home stripe from now on.
+     *
+     * @param home the home stripe.
+     */
+    private static void lockHome(Stripe<?> home) {
+        if (!home.lock.tryLock()) {
+            ThreadProbe.advance();
+            home.lock.lock();
+        }
+    }
+
+    private int idleCount() {
+        int count = 0;
+        for (Stripe<T> stripe : stripes) {
+            count += stripe.idleSize;
+        }
+        return count;
+    }
+
+    /**
+     * Destroy the idle objects past their idle timeout, above the min size. Each deque is
+     * walked from its oldest end, and every entry is checked on its own idle time rather
+     * than stopping at the first fresh one, since objects put back by serveWaiters and
+     * MRU churn at the other end do not keep the deques strictly ordered.
+     */
+    private void timeoutObjects() {
+        long target = System.currentTimeMillis() - idleTimeout;
+        int exceed = poolSize.get() - minSize;
+        List<T> timeoutIdle = new ArrayList<>();
+
+        for (int i = 0; i < stripes.length && exceed > 0; i++) {
+            Stripe<T> stripe = stripes[i];
+            stripe.lock.lock();
+            try {
+                for (Iterator<TimedObject<T>> it = stripe.idle.iterator(); exceed > 0 && it.hasNext();) {
+                    TimedObject<T> p = it.next();
+                    if (p.getTime() < target) {
+                        it.remove();
+                        timeoutIdle.add(p.getObj());
+                        totalTimeout.increment();
+                        exceed --;
+                    }
+                }
+                stripe.idleSize = stripe.idle.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        if (timeoutIdle.size() > 0) {
+            LOGGER.debug(poolName + " disposing " + timeoutIdle.size() + " objects due to timeout");
+            for (T t : timeoutIdle) {
+                destroy(t, false);
+            }
+        }
+    }
+
+    private static final class Stripe<T> {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int index;
+        // Guarded by lock, idleSize mirrors idle.size() for lock free readers.
+        private final Deque<TimedObject<T>> idle = new LinkedList<>();
+        private final LinkedDeque<TimeTrackingCallback<T>> waiters = new LinkedDeque<>();
+        private final HashedTimingWheel<TimeTrackingCallback<T>> wheel =
+                new HashedTimingWheel<>(WAITER_TICK, WAITER_WHEEL_SIZE, System.currentTimeMillis());
+        private volatile int idleSize = 0;
+
+        private Stripe(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Poll the next waiter and cancel its timeout. Lock must be acquired before call this method.
+         *
+         * @return the waiter or null if there is none.
+         */
+        private TimeTrackingCallback<T> pollWaiter() {
+            TimeTrackingCallback<T> waiter = waiters.poll();
+            if (waiter != null) {
+                wheel.cancel(waiter);
+            }
+            return waiter;
+        }
+    }
+}
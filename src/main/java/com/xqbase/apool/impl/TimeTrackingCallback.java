@@ -0,0 +1,69 @@
+package com.xqbase.apool.impl;
+
+import com.xqbase.apool.callback.Callback;
+import com.xqbase.apool.util.HashedTimingWheel;
+import com.xqbase.apool.util.LinkedDeque;
+
+/**
+ * A waiter of a pool, which remembers when it started waiting, its node in the
+ * waiter queue, and its place on the timing wheel if it waits with a timeout.
+ *
+ * @author Tony He
+ */
+class TimeTrackingCallback<T> extends HashedTimingWheel.Timeout<TimeTrackingCallback<T>> implements Callback<T> {
+
+    private final long startTime;
+    // The same instant on the nanosecond clock, for the wait time statistics.
+    private final long startNanos;
+    // When the waiter times out, negative if it waits forever.
+    private final long deadline;
+    private final AsyncPoolImpl.Priority priority;
+    private final Callback<T> callback;
+    private LinkedDeque.Node<TimeTrackingCallback<T>> node;
+
+    TimeTrackingCallback(Callback<T> callback, long timeout) {
+        this(callback, AsyncPoolImpl.Priority.NORMAL, timeout);
+    }
+
+    TimeTrackingCallback(Callback<T> callback, AsyncPoolImpl.Priority priority, long timeout) {
+        this.startTime = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.deadline = timeout >= 0 ? startTime + timeout : -1;
+        this.priority = priority;
+        this.callback = callback;
+    }
+
+    long getStartTime() {
+        return startTime;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    AsyncPoolImpl.Priority getPriority() {
+        return priority;
+    }
+
+    LinkedDeque.Node<TimeTrackingCallback<T>> getNode() {
+        return node;
+    }
+
+    void setNode(LinkedDeque.Node<TimeTrackingCallback<T>> node) {
+        this.node = node;
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        callback.onError(e);
+    }
+
+    @Override
+    public void onSuccess(T result) {
+        callback.onSuccess(result);
+    }
+}
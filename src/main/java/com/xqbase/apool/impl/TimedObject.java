@@ -0,0 +1,261 @@
+package com.xqbase.apool.impl;
+
+import com.xqbase.apool.util.HashedTimingWheel;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A pool object along with the time it last became idle.
+ *
+ * {@link AsyncPoolImpl} and {@link StripedAsyncPool} keep one instance per live pool
+ * object and reuse it for every checkout. The state is claimed by CAS, so the same
+ * entry may be reachable from the idle queue and from a thread's affinity list at
+ * once, and only one of them wins it. A second put of the same object finds it
+ * returned already and is ignored. Every claim also counts a new checkout into the
+ * state, so a CAS on a state read earlier fails once that checkout has ended.
+ *
+ * The entry is also its own node on the idle timeout wheel.
+ *
+ * @author Tony He
+ */
+class TimedObject<T> extends HashedTimingWheel.Timeout<TimedObject<T>> {
+
+    static final int IN_USE = 0;
+    static final int IDLE = 1;
+    static final int REMOVED = 2;
+    // Being returned by put or dispose, so that a second put of the same object is ignored.
+    static final int RETURNING = 3;
+    // Claimed from idle by the background validation, not checked out.
+    static final int VALIDATING = 4;
+    // The low bits of the state hold one of the above, the rest counts the checkouts.
+    private static final int STATE_BITS = 3;
+    private static final int STATE_MASK = (1 << STATE_BITS) - 1;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<TimedObject> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(TimedObject.class, "state");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<TimedObject> QUEUED =
+            AtomicIntegerFieldUpdater.newUpdater(TimedObject.class, "queued");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<TimedObject> CHECKOUT_TIME =
+            AtomicLongFieldUpdater.newUpdater(TimedObject.class, "checkoutTime");
+
+    private final T obj;
+    private volatile long time;
+    // When the object was last checked out, 0 while it is not.
+    private volatile long checkoutTime = 0;
+    // The same instant on the nanosecond clock, written before the object is handed
+    // out and read by the put which returns it, for the hold time statistics.
+    private long checkoutNanos = 0;
+    // When the object was last known valid, creation counts as validation.
+    private volatile long validated;
+    // When the object reaches its max lifetime, 0 if it lives forever.
+    private long expireTime = 0;
+    // Guarded by the pool lock, true while a replacement is being created.
+    private boolean retiring = false;
+    // Set once the replacement exists, the object is destroyed as soon as it is idle.
+    private volatile boolean retired = false;
+    private volatile int state = IN_USE;
+    // 1 while the entry sits in the idle queue, it is never queued twice.
+    private volatile int queued = 0;
+    // The slot of a SlotIdleQueue the entry was queued in last.
+    private int slot = 0;
+
+    TimedObject(T obj) {
+        this.obj = obj;
+        this.time = System.currentTimeMillis();
+        this.validated = time;
+    }
+
+    public T getObj() {
+        return obj;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    boolean isIdle() {
+        return (state & STATE_MASK) == IDLE;
+    }
+
+    boolean isInUse() {
+        return (state & STATE_MASK) == IN_USE;
+    }
+
+    boolean isRemoved() {
+        return (state & STATE_MASK) == REMOVED;
+    }
+
+    /**
+     * Get a stamp of the current state, to claim the entry later only if it is still
+     * in the same checkout.
+     *
+     * @return the stamp.
+     */
+    int getStamp() {
+        return state;
+    }
+
+    boolean isQueued() {
+        return queued == 1;
+    }
+
+    long getCheckoutTime() {
+        return checkoutTime;
+    }
+
+    void setCheckoutTime(long checkoutTime) {
+        // Ordered rather than volatile, it is written twice per checkout and only the
+        // timer reads it from another thread.
+        CHECKOUT_TIME.lazySet(this, checkoutTime);
+    }
+
+    long getCheckoutNanos() {
+        return checkoutNanos;
+    }
+
+    void setCheckoutNanos(long checkoutNanos) {
+        this.checkoutNanos = checkoutNanos;
+    }
+
+    long getValidated() {
+        return validated;
+    }
+
+    void setValidated(long validated) {
+        this.validated = validated;
+    }
+
+    long getExpireTime() {
+        return expireTime;
+    }
+
+    void setExpireTime(long expireTime) {
+        this.expireTime = expireTime;
+    }
+
+    boolean isRetiring() {
+        return retiring;
+    }
+
+    void setRetiring(boolean retiring) {
+        this.retiring = retiring;
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    void retire() {
+        retired = true;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    /**
+     * Claim an idle entry for checkout.
+     *
+     * @return true if the entry was idle and now belongs to the caller.
+     */
+    boolean tryClaim() {
+        int s = state;
+        return (s & STATE_MASK) == IDLE && STATE.compareAndSet(this, s, (s & ~STATE_MASK) + (1 << STATE_BITS) | IN_USE);
+    }
+
+    /**
+     * Claim a checked out entry for put or dispose.
+     *
+     * @return true if the entry was checked out and now belongs to the caller.
+     */
+    boolean tryReturn() {
+        return tryReturn(state);
+    }
+
+    /**
+     * Claim a checked out entry for put or dispose, but only within the checkout the
+     * stamp was taken in.
+     *
+     * @param stamp the stamp from {@link #getStamp()}.
+     * @return true if the entry was still in that checkout and now belongs to the caller.
+     */
+    boolean tryReturn(int stamp) {
+        return (stamp & STATE_MASK) == IN_USE && STATE.compareAndSet(this, stamp, stamp & ~STATE_MASK | RETURNING);
+    }
+
+    /**
+     * Claim an idle entry for background validation.
+     *
+     * @return true if the entry was idle and now belongs to the caller.
+     */
+    boolean tryValidate() {
+        int s = state;
+        return (s & STATE_MASK) == IDLE && STATE.compareAndSet(this, s, s & ~STATE_MASK | VALIDATING);
+    }
+
+    /**
+     * Take an idle entry out of the pool for good.
+     *
+     * @return true if the entry was idle and now belongs to the caller.
+     */
+    boolean tryRemove() {
+        int s = state;
+        return (s & STATE_MASK) == IDLE && STATE.compareAndSet(this, s, s & ~STATE_MASK | REMOVED);
+    }
+
+    /**
+     * Mark a checked out entry idle again.
+     */
+    void release() {
+        release(System.currentTimeMillis());
+    }
+
+    /**
+     * Mark a claimed entry idle again, as if it had been idle since the given time.
+     *
+     * @param time when the entry became idle.
+     */
+    void release(long time) {
+        this.time = time;
+        // Only the owner of a claimed entry releases it, nobody else writes the state meanwhile.
+        state = state & ~STATE_MASK | IDLE;
+    }
+
+    /**
+     * Mark the entry removed whatever its state is.
+     *
+     * @return true if the entry was idle.
+     */
+    boolean remove() {
+        for (;;) {
+            int s = state;
+            if (STATE.compareAndSet(this, s, s & ~STATE_MASK | REMOVED)) {
+                return (s & STATE_MASK) == IDLE;
+            }
+        }
+    }
+
+    /**
+     * Mark the entry as queued in the idle queue.
+     *
+     * @return true if the entry was not queued and should be offered now.
+     */
+    boolean markQueued() {
+        return QUEUED.getAndSet(this, 1) == 0;
+    }
+
+    /**
+     * Mark the entry as polled from the idle queue.
+     */
+    void clearQueued() {
+        queued = 0;
+    }
+}
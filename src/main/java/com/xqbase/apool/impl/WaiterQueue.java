@@ -0,0 +1,226 @@
+package com.xqbase.apool.impl;
+
+import com.xqbase.apool.util.LinkedDeque;
+
+import java.util.Collection;
+
+/**
+ * The waiters of an {@link AsyncPoolImpl}, one FIFO per {@link AsyncPoolImpl.Priority}.
+ *
+ * A freed object goes to the highest priority waiter first. So that a steady stream of
+ * high priority waiters can not starve the others, a waiter moves up one class for every
+ * aging period it has waited, and among equal classes the one which was asked first wins.
+ * Only the heads need to be compared, as each class is FIFO.
+ *
+ * With {@link AsyncPoolImpl.Discipline#CODEL} the queue watches the queueing delay of its
+ * oldest waiter. Once that stayed above the target for a whole interval the queue is
+ * overloaded: it serves the newest waiter of a class first, and sheds the waiters which
+ * waited longer than the target, so that most requests are still served fast instead of
+ * all of them waiting through the whole backlog. Once the queue drains the overload is
+ * over and the delay is watched afresh.
+ *
+ * This is not thread safe, it is guarded by the pool lock.
+ *
+ * @author Tony He
+ */
+class WaiterQueue<T> {
+
+    private static final AsyncPoolImpl.Priority[] PRIORITIES = AsyncPoolImpl.Priority.values();
+
+    private final LinkedDeque<TimeTrackingCallback<T>>[] queues;
+    private final int[] maxSizes;
+    private long aging;
+    private int size = 0;
+
+    private AsyncPoolImpl.Discipline discipline = AsyncPoolImpl.Discipline.FIFO;
+    private long target = 0;
+    private long interval = 0;
+    // The min delay of the oldest waiter seen within the current interval.
+    private long intervalMin = Long.MAX_VALUE;
+    private long intervalEnd = 0;
+    private boolean overloaded = false;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    WaiterQueue(long aging) {
+        this.queues = new LinkedDeque[PRIORITIES.length];
+        this.maxSizes = new int[PRIORITIES.length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new LinkedDeque<>();
+            maxSizes[i] = Integer.MAX_VALUE;
+        }
+        this.aging = aging;
+    }
+
+    void setMaxSize(AsyncPoolImpl.Priority priority, int maxSize) {
+        maxSizes[priority.ordinal()] = maxSize;
+    }
+
+    int getMaxSize(AsyncPoolImpl.Priority priority) {
+        return maxSizes[priority.ordinal()];
+    }
+
+    void setAging(long aging) {
+        this.aging = aging;
+    }
+
+    void setDiscipline(AsyncPoolImpl.Discipline discipline, long target, long interval) {
+        this.discipline = discipline;
+        this.target = target;
+        this.interval = interval;
+    }
+
+    boolean isOverloaded() {
+        return overloaded;
+    }
+
+    boolean isCoDel() {
+        return discipline == AsyncPoolImpl.Discipline.CODEL;
+    }
+
+    /**
+     * Watch the queueing delay, and remove the waiters to be shed if the queue is overloaded.
+     *
+     * @param now the current time.
+     * @param shed collects the removed waiters.
+     */
+    void shed(long now, Collection<? super TimeTrackingCallback<T>> shed) {
+        if (discipline != AsyncPoolImpl.Discipline.CODEL || size == 0) {
+            return;
+        }
+        intervalMin = Math.min(intervalMin, now - oldestStartTime());
+        if (intervalEnd == 0) {
+            intervalEnd = now + interval;
+        } else if (now >= intervalEnd) {
+            overloaded = intervalMin > target;
+            intervalMin = Long.MAX_VALUE;
+            intervalEnd = now + interval;
+        }
+        if (!overloaded) {
+            return;
+        }
+        for (LinkedDeque<TimeTrackingCallback<T>> queue : queues) {
+            for (TimeTrackingCallback<T> head; (head = queue.peekFirst()) != null
+                    && now - head.getStartTime() > target;) {
+                queue.pollFirst();
+                removed();
+                shed.add(head);
+            }
+        }
+    }
+
+    /**
+     * Add a waiter at the tail of its class.
+     *
+     * @param waiter the waiter.
+     * @return false if its class is full.
+     */
+    boolean offer(TimeTrackingCallback<T> waiter) {
+        LinkedDeque<TimeTrackingCallback<T>> queue = queues[waiter.getPriority().ordinal()];
+        if (queue.size() >= maxSizes[waiter.getPriority().ordinal()]) {
+            return false;
+        }
+        waiter.setNode(queue.addLastNode(waiter));
+        size ++;
+        return true;
+    }
+
+    /**
+     * Add a waiter at the head of its class, regardless of the class limit.
+     *
+     * @param waiter the waiter.
+     */
+    void offerFirst(TimeTrackingCallback<T> waiter) {
+        waiter.setNode(queues[waiter.getPriority().ordinal()].addFirstNode(waiter));
+        size ++;
+    }
+
+    /**
+     * Poll the waiter to be served next.
+     *
+     * @return the waiter or null if there is none.
+     */
+    TimeTrackingCallback<T> poll() {
+        if (size == 0) {
+            return null;
+        }
+        LinkedDeque<TimeTrackingCallback<T>> best = null;
+        if (aging <= 0) {
+            for (LinkedDeque<TimeTrackingCallback<T>> queue : queues) {
+                if (!queue.isEmpty()) {
+                    best = queue;
+                    break;
+                }
+            }
+        } else {
+            long now = System.currentTimeMillis();
+            long bestClass = Long.MAX_VALUE;
+            long bestStart = Long.MAX_VALUE;
+            for (int i = 0; i < queues.length; i++) {
+                TimeTrackingCallback<T> head = queues[i].peekFirst();
+                if (head == null) {
+                    continue;
+                }
+                long effective = i - (now - head.getStartTime()) / aging;
+                if (effective < bestClass || (effective == bestClass && head.getStartTime() < bestStart)) {
+                    best = queues[i];
+                    bestClass = effective;
+                    bestStart = head.getStartTime();
+                }
+            }
+        }
+        // Pick before the count drops, which may end the overload.
+        TimeTrackingCallback<T> waiter = overloaded ? best.pollLast() : best.pollFirst();
+        removed();
+        return waiter;
+    }
+
+    /**
+     * Remove a queued waiter.
+     *
+     * @param waiter the waiter.
+     * @return false if the waiter was not queued.
+     */
+    boolean remove(TimeTrackingCallback<T> waiter) {
+        LinkedDeque.Node<TimeTrackingCallback<T>> node = waiter.getNode();
+        if (node == null || queues[waiter.getPriority().ordinal()].removeNode(node) == null) {
+            return false;
+        }
+        removed();
+        return true;
+    }
+
+    /**
+     * Count a removed waiter, and end the overload once nobody waits any more.
+     */
+    private void removed() {
+        if (-- size == 0) {
+            overloaded = false;
+            intervalMin = Long.MAX_VALUE;
+            intervalEnd = 0;
+        }
+    }
+
+    /**
+     * Get when the longest waiting waiter started waiting.
+     *
+     * @return the start time or Long.MAX_VALUE if there is no waiter.
+     */
+    long oldestStartTime() {
+        long oldest = Long.MAX_VALUE;
+        for (LinkedDeque<TimeTrackingCallback<T>> queue : queues) {
+            TimeTrackingCallback<T> head = queue.peekFirst();
+            if (head != null) {
+                oldest = Math.min(oldest, head.getStartTime());
+            }
+        }
+        return oldest;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,92 @@
+package com.xqbase.apool.jmx;
+
+import com.xqbase.apool.stats.LatencyStats;
+import com.xqbase.apool.stats.RateStats;
+
+/**
+ * The management interface of an {@link com.xqbase.apool.impl.AsyncPoolImpl}. The
+ * attributes are read from {@link com.xqbase.apool.stats.PoolStats} and never take
+ * the pool's lock.
+ *
+ * @author Tony He
+ */
+public interface AsyncPoolMXBean {
+
+    String getPoolName();
+
+    int getMaxPoolSize();
+
+    int getMinPoolSize();
+
+    int getPoolSize();
+
+    int getCheckedOut();
+
+    int getIdleCount();
+
+    long getTotalCreated();
+
+    long getTotalDestroyed();
+
+    long getTotalCreatedErrors();
+
+    long getTotalDestroyErrors();
+
+    long getTotalBadDestroyed();
+
+    long getTotalTimeout();
+
+    LatencyStats getWaitTime();
+
+    LatencyStats getCreateTime();
+
+    LatencyStats getHoldTime();
+
+    LatencyStats getDestroyTime();
+
+    RateStats getAcquireRate();
+
+    RateStats getCreateRate();
+
+    RateStats getCreateErrorRate();
+
+    RateStats getTimeoutRate();
+
+    RateStats getRejectRate();
+
+    /**
+     * Get how many create failures within a second send a notification.
+     *
+     * @return the burst threshold.
+     */
+    int getCreateFailureBurst();
+
+    /**
+     * Set how many create failures within a second send a notification.
+     *
+     * @param burst the burst threshold, at least 1.
+     */
+    void setCreateFailureBurst(int burst);
+
+    /**
+     * Fail all waiters of the pool.
+     *
+     * @return the number of failed waiters.
+     */
+    int cancelWaiters();
+
+    /**
+     * Destroy the idle objects above the min size now.
+     *
+     * @return the number of destroyed objects.
+     */
+    int shrinkIdle();
+
+    /**
+     * Change the bounds of the pool.
+     *
+     * @param minSize the new min size.
+     * @param maxSize the new max size.
+     */
+    void resize(int minSize, int maxSize);
+}
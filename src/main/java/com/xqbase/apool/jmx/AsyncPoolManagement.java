@@ -0,0 +1,271 @@
+package com.xqbase.apool.jmx;
+
+import com.xqbase.apool.callback.Callback;
+import com.xqbase.apool.impl.AsyncPoolImpl;
+import com.xqbase.apool.stats.PoolStats;
+import com.xqbase.apool.stats.LatencyStats;
+import com.xqbase.apool.stats.RateStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The MXBean of an {@link AsyncPoolImpl}, registered with the platform MBean server.
+ * Besides the attributes and operations of {@link AsyncPoolMXBean}, it sends a
+ * {@link #CREATE_FAILURE_BURST} notification when creates fail in a burst, once per burst.
+ *
+ * The attributes of one read, e.g. a console refreshing all of them, share a snapshot
+ * of the stats which is at most {@link #STATS_MAX_AGE} milliseconds old.
+ *
+ * @author Tony He
+ */
+public class AsyncPoolManagement extends NotificationBroadcasterSupport implements AsyncPoolMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncPoolManagement.class);
+
+    public static final String DOMAIN = "com.xqbase.apool";
+    public static final String CREATE_FAILURE_BURST = "com.xqbase.apool.create.failure.burst";
+    public static final long STATS_MAX_AGE = 100;
+    private static final int DEFAULT_CREATE_FAILURE_BURST = 5;
+
+    private final AsyncPoolImpl<?> pool;
+    private final AtomicLong sequence = new AtomicLong();
+    private ObjectName objectName = null;
+    // Replaced racily, a concurrent reader at worst takes another snapshot.
+    private volatile PoolStats stats = null;
+    private volatile long statsTime = 0;
+
+    private volatile int createFailureBurst = DEFAULT_CREATE_FAILURE_BURST;
+    // Guarded by this, the failures of the current second.
+    private long burstSecond = 0;
+    private int burstFailures = 0;
+
+    public AsyncPoolManagement(AsyncPoolImpl<?> pool) {
+        super(new MBeanNotificationInfo(new String[] {CREATE_FAILURE_BURST}, Notification.class.getName(),
+                "Creates of pool objects failed in a burst"));
+        this.pool = pool;
+    }
+
+    /**
+     * Get the default object name of a pool.
+     *
+     * @param poolName the name of the pool.
+     * @return the object name.
+     * @throws JMException if the name is malformed.
+     */
+    public static ObjectName objectName(String poolName) throws JMException {
+        return new ObjectName(DOMAIN + ":type=AsyncPool,name=" + ObjectName.quote(poolName));
+    }
+
+    /**
+     * Register with the platform MBean server.
+     *
+     * @param objectName the object name.
+     * @throws JMException if the registration fails.
+     */
+    public synchronized void register(ObjectName objectName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, objectName);
+        this.objectName = objectName;
+    }
+
+    /**
+     * Unregister from the platform MBean server, if registered.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOGGER.warn("Failed to unregister " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Count a failed create, and send a notification when the failures of the
+     * current second reach the burst threshold.
+     *
+     * @param e the create error.
+     */
+    public void createFailed(Throwable e) {
+        long second = System.currentTimeMillis() / 1000;
+        int failures;
+        synchronized (this) {
+            if (second != burstSecond) {
+                burstSecond = second;
+                burstFailures = 0;
+            }
+            failures = ++ burstFailures;
+        }
+        if (failures == createFailureBurst) {
+            Notification notification = new Notification(CREATE_FAILURE_BURST, this, sequence.incrementAndGet(),
+                    pool.getName() + " failed to create " + failures + " objects within a second: " + e);
+            sendNotification(notification);
+        }
+    }
+
+    private PoolStats stats() {
+        long now = System.currentTimeMillis();
+        PoolStats current = stats;
+        if (current == null || now - statsTime > STATS_MAX_AGE) {
+            current = pool.getStats();
+            stats = current;
+            statsTime = now;
+        }
+        return current;
+    }
+
+    @Override
+    public String getPoolName() {
+        return pool.getName();
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        return stats().getMaxPoolSize();
+    }
+
+    @Override
+    public int getMinPoolSize() {
+        return stats().getMinPoolSize();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return stats().getPoolSize();
+    }
+
+    @Override
+    public int getCheckedOut() {
+        return stats().getCheckedOut();
+    }
+
+    @Override
+    public int getIdleCount() {
+        return stats().getIdleCount();
+    }
+
+    @Override
+    public long getTotalCreated() {
+        return stats().getTotalCreated();
+    }
+
+    @Override
+    public long getTotalDestroyed() {
+        return stats().getTotalDestroyed();
+    }
+
+    @Override
+    public long getTotalCreatedErrors() {
+        return stats().getTotalCreatedErrors();
+    }
+
+    @Override
+    public long getTotalDestroyErrors() {
+        return stats().getTotalDestroyErrors();
+    }
+
+    @Override
+    public long getTotalBadDestroyed() {
+        return stats().getTotalBadDestroyed();
+    }
+
+    @Override
+    public long getTotalTimeout() {
+        return stats().getTotalTimeout();
+    }
+
+    @Override
+    public LatencyStats getWaitTime() {
+        return stats().getWaitTime();
+    }
+
+    @Override
+    public LatencyStats getCreateTime() {
+        return stats().getCreateTime();
+    }
+
+    @Override
+    public LatencyStats getHoldTime() {
+        return stats().getHoldTime();
+    }
+
+    @Override
+    public LatencyStats getDestroyTime() {
+        return stats().getDestroyTime();
+    }
+
+    @Override
+    public RateStats getAcquireRate() {
+        return stats().getAcquireRate();
+    }
+
+    @Override
+    public RateStats getCreateRate() {
+        return stats().getCreateRate();
+    }
+
+    @Override
+    public RateStats getCreateErrorRate() {
+        return stats().getCreateErrorRate();
+    }
+
+    @Override
+    public RateStats getTimeoutRate() {
+        return stats().getTimeoutRate();
+    }
+
+    @Override
+    public RateStats getRejectRate() {
+        return stats().getRejectRate();
+    }
+
+    @Override
+    public int getCreateFailureBurst() {
+        return createFailureBurst;
+    }
+
+    @Override
+    public void setCreateFailureBurst(int burst) {
+        if (burst < 1) {
+            throw new IllegalArgumentException("Invalid create failure burst " + burst);
+        }
+        createFailureBurst = burst;
+    }
+
+    @Override
+    public int cancelWaiters() {
+        Collection<? extends Callback<?>> waiters = pool.cancelWaiters();
+        for (Callback<?> waiter : waiters) {
+            waiter.onError(new CancellationException(pool.getName() + " cancelled the waiter through JMX"));
+        }
+        stats = null;
+        return waiters.size();
+    }
+
+    @Override
+    public int shrinkIdle() {
+        int destroyed = pool.shrinkIdle();
+        stats = null;
+        return destroyed;
+    }
+
+    @Override
+    public void resize(int minSize, int maxSize) {
+        pool.resize(minSize, maxSize);
+        stats = null;
+    }
+}
@@ -12,27 +12,86 @@ public class AsyncPoolStats implements PoolStats {
     private final int minSize;
     private final int poolSize;
 
-    private final int totalCreated;
-    private final int totalCreateErrors;
-    private final int totalDestroyed;
-    private final int totalDestroyErrors;
-    private final int totalBadDestroyed;
-    private final int totalTimeout;
+    private final long totalCreated;
+    private final long totalCreateErrors;
+    private final long totalDestroyed;
+    private final long totalDestroyErrors;
+    private final long totalBadDestroyed;
+    private final long totalTimeout;
     private final int checkedOut;
     private final int idleCount;
 
+    private final LatencyStats waitTime;
+    private final LatencyStats createTime;
+    private final LatencyStats holdTime;
+    private final LatencyStats destroyTime;
+
+    private final RateStats acquireRate;
+    private final RateStats createRate;
+    private final RateStats createErrorRate;
+    private final RateStats timeoutRate;
+    private final RateStats rejectRate;
+
     public AsyncPoolStats(String poolName,
                           int maxSize,
                           int minSize,
                           int poolSize,
-                          int totalCreated,
-                          int totalCreateErrors,
-                          int totalDestroyed,
-                          int totalDestroyErrors,
-                          int totalBadDestroyed,
-                          int totalTimeout,
+                          long totalCreated,
+                          long totalCreateErrors,
+                          long totalDestroyed,
+                          long totalDestroyErrors,
+                          long totalBadDestroyed,
+                          long totalTimeout,
                           int checkedOut,
                           int idleCount) {
+        this(poolName, maxSize, minSize, poolSize, totalCreated, totalCreateErrors, totalDestroyed,
+                totalDestroyErrors, totalBadDestroyed, totalTimeout, checkedOut, idleCount,
+                LatencyStats.EMPTY, LatencyStats.EMPTY, LatencyStats.EMPTY, LatencyStats.EMPTY);
+    }
+
+    public AsyncPoolStats(String poolName,
+                          int maxSize,
+                          int minSize,
+                          int poolSize,
+                          long totalCreated,
+                          long totalCreateErrors,
+                          long totalDestroyed,
+                          long totalDestroyErrors,
+                          long totalBadDestroyed,
+                          long totalTimeout,
+                          int checkedOut,
+                          int idleCount,
+                          LatencyStats waitTime,
+                          LatencyStats createTime,
+                          LatencyStats holdTime,
+                          LatencyStats destroyTime) {
+        this(poolName, maxSize, minSize, poolSize, totalCreated, totalCreateErrors, totalDestroyed,
+                totalDestroyErrors, totalBadDestroyed, totalTimeout, checkedOut, idleCount,
+                waitTime, createTime, holdTime, destroyTime,
+                RateStats.EMPTY, RateStats.EMPTY, RateStats.EMPTY, RateStats.EMPTY, RateStats.EMPTY);
+    }
+
+    public AsyncPoolStats(String poolName,
+                          int maxSize,
+                          int minSize,
+                          int poolSize,
+                          long totalCreated,
+                          long totalCreateErrors,
+                          long totalDestroyed,
+                          long totalDestroyErrors,
+                          long totalBadDestroyed,
+                          long totalTimeout,
+                          int checkedOut,
+                          int idleCount,
+                          LatencyStats waitTime,
+                          LatencyStats createTime,
+                          LatencyStats holdTime,
+                          LatencyStats destroyTime,
+                          RateStats acquireRate,
+                          RateStats createRate,
+                          RateStats createErrorRate,
+                          RateStats timeoutRate,
+                          RateStats rejectRate) {
         this.poolName = poolName;
         this.maxSize = maxSize;
         this.minSize = minSize;
@@ -45,35 +104,44 @@ public class AsyncPoolStats implements PoolStats {
         this.totalTimeout = totalTimeout;
         this.checkedOut = checkedOut;
         this.idleCount = idleCount;
+        this.waitTime = waitTime;
+        this.createTime = createTime;
+        this.holdTime = holdTime;
+        this.destroyTime = destroyTime;
+        this.acquireRate = acquireRate;
+        this.createRate = createRate;
+        this.createErrorRate = createErrorRate;
+        this.timeoutRate = timeoutRate;
+        this.rejectRate = rejectRate;
     }
 
     @Override
-    public int getTotalCreated() {
+    public long getTotalCreated() {
         return totalCreated;
     }
 
     @Override
-    public int getTotalDestroyed() {
+    public long getTotalDestroyed() {
         return totalDestroyed;
     }
 
     @Override
-    public int getTotalCreatedErrors() {
+    public long getTotalCreatedErrors() {
         return totalCreateErrors;
     }
 
     @Override
-    public int getTotalDestroyErrors() {
+    public long getTotalDestroyErrors() {
         return totalDestroyErrors;
     }
 
     @Override
-    public int getTotalBadDestroyed() {
+    public long getTotalBadDestroyed() {
         return totalBadDestroyed;
     }
 
     @Override
-    public int getTotalTimeout() {
+    public long getTotalTimeout() {
         return totalTimeout;
     }
 
@@ -106,4 +174,49 @@ public class AsyncPoolStats implements PoolStats {
     public String getPoolName() {
         return poolName;
     }
+
+    @Override
+    public LatencyStats getWaitTime() {
+        return waitTime;
+    }
+
+    @Override
+    public LatencyStats getCreateTime() {
+        return createTime;
+    }
+
+    @Override
+    public LatencyStats getHoldTime() {
+        return holdTime;
+    }
+
+    @Override
+    public LatencyStats getDestroyTime() {
+        return destroyTime;
+    }
+
+    @Override
+    public RateStats getAcquireRate() {
+        return acquireRate;
+    }
+
+    @Override
+    public RateStats getCreateRate() {
+        return createRate;
+    }
+
+    @Override
+    public RateStats getCreateErrorRate() {
+        return createErrorRate;
+    }
+
+    @Override
+    public RateStats getTimeoutRate() {
+        return timeoutRate;
+    }
+
+    @Override
+    public RateStats getRejectRate() {
+        return rejectRate;
+    }
 }
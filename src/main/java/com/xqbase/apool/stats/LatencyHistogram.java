@@ -0,0 +1,131 @@
+package com.xqbase.apool.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of durations with logarithmic buckets. Values below 16 get
+ * a bucket each, above that every power of two is split into 8 buckets, so a reported
+ * percentile is at most 12.5% above the true value. The buckets cover every positive
+ * long in a fixed array, recording is an atomic increment and an add to the running
+ * sum, and allocates nothing. The buckets are striped over threads like the sum, so that
+ * threads recording similar values don't all increment the same bucket.
+ *
+ * The histogram is cumulative, it is never reset.
+ *
+ * @author Tony He
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final LongArrayStripes counts = new LongArrayStripes(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Record a value, negative values count as 0.
+     *
+     * @param value the value, usually in microseconds.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.increment(index(v));
+        sum.add(v);
+    }
+
+    /**
+     * Get the number of recorded values.
+     *
+     * @return the number of values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.sum(i);
+        }
+        return count;
+    }
+
+    /**
+     * Get the sum of the recorded values.
+     *
+     * @return the sum, exact unlike the percentiles.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Get a percentile of the recorded values.
+     *
+     * @param percentile the percentile, from 0 to 100.
+     * @return the highest value of the bucket which holds the percentile, 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        return percentile(percentile, getCount());
+    }
+
+    /**
+     * Take a snapshot of the usual percentiles.
+     *
+     * @return the snapshot.
+     */
+    public LatencyStats snapshot() {
+        long total = getCount();
+        return new LatencyStats(total, sum.sum(), percentile(50, total), percentile(90, total), percentile(99, total),
+                percentile(99.9, total), percentile(100, total));
+    }
+
+    /**
+     * Hand the usual percentiles to a visitor, without allocating.
+     *
+     * @param visitor the visitor.
+     * @param latency which latency this histogram records.
+     */
+    public void accept(StatsVisitor visitor, StatsVisitor.Latency latency) {
+        long total = getCount();
+        visitor.visitLatency(latency, total, sum.sum(), percentile(50, total), percentile(90, total), percentile(99, total),
+                percentile(99.9, total), percentile(100, total));
+    }
+
+    private long percentile(double percentile, long total) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        int last = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.sum(i);
+            if (count == 0) {
+                continue;
+            }
+            seen += count;
+            last = i;
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        // Values recorded since the count was taken may leave the highest percentiles unmatched.
+        return highestValue(last);
+    }
+
+    private static int index(long value) {
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent <= SUB_BITS) {
+            return (int) value;
+        }
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
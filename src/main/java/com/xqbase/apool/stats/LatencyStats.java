@@ -0,0 +1,63 @@
+package com.xqbase.apool.stats;
+
+/**
+ * A snapshot of the count, sum and percentiles of a {@link LatencyHistogram}, in microseconds.
+ *
+ * @author Tony He
+ */
+public class LatencyStats {
+
+    public static final LatencyStats EMPTY = new LatencyStats(0, 0, 0, 0, 0, 0, 0);
+
+    private final long count;
+    private final long sum;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    public LatencyStats(long count, long sum, long p50, long p90, long p99, long p999, long max) {
+        this.count = count;
+        this.sum = sum;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " sum=" + sum + "us p50=" + p50 + "us p90=" + p90 + "us p99=" + p99
+                + "us p99.9=" + p999 + "us max=" + max + "us";
+    }
+}
@@ -0,0 +1,111 @@
+package com.xqbase.apool.stats;
+
+import com.xqbase.apool.util.ThreadProbe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An array of longs striped over threads, the way {@link java.util.concurrent.atomic.LongAdder}
+ * stripes a single long. There is one stripe to begin with. A thread whose CAS on its stripe
+ * fails moves to another stripe, which is created on demand, so only contended arrays grow,
+ * and at most to a stripe per processor. Readers add up the stripes.
+ *
+ * @author Tony He
+ */
+class LongArrayStripes {
+
+    private static final int MAX_STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+    private final int length;
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(MAX_STRIPES);
+
+    LongArrayStripes(int length) {
+        this.length = length;
+        stripes.set(0, new AtomicLongArray(length));
+    }
+
+    /**
+     * Get the stripe the calling thread updates, the first stripe until it met contention.
+     *
+     * @return the stripe.
+     */
+    AtomicLongArray stripe() {
+        AtomicLongArray stripe = stripes.get(ThreadProbe.get() & (MAX_STRIPES - 1));
+        return stripe != null ? stripe : stripes.get(0);
+    }
+
+    /**
+     * Move the calling thread to another stripe after a failed CAS, and create it if needed.
+     *
+     * @return the stripe to retry on.
+     */
+    AtomicLongArray contended() {
+        int index = ThreadProbe.advance() & (MAX_STRIPES - 1);
+        AtomicLongArray stripe = stripes.get(index);
+        if (stripe == null) {
+            stripes.compareAndSet(index, null, new AtomicLongArray(length));
+            stripe = stripes.get(index);
+        }
+        return stripe;
+    }
+
+    /**
+     * Add one to an element.
+     *
+     * @param index the index of the element.
+     */
+    void increment(int index) {
+        AtomicLongArray stripe = stripe();
+        long value = stripe.get(index);
+        if (!stripe.compareAndSet(index, value, value + 1)) {
+            contended().getAndIncrement(index);
+        }
+    }
+
+    /**
+     * Get an element added up over the stripes.
+     *
+     * @param index the index of the element.
+     * @return the sum.
+     */
+    long sum(int index) {
+        long sum = 0;
+        for (int i = 0; i < MAX_STRIPES; i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (stripe != null) {
+                sum += stripe.get(index);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Get the max number of stripes.
+     *
+     * @return the max number of stripes.
+     */
+    int maxStripes() {
+        return MAX_STRIPES;
+    }
+
+    /**
+     * Get a stripe by its index.
+     *
+     * @param index the index, below {@link #maxStripes()}.
+     * @return the stripe or null if it was not created yet.
+     */
+    AtomicLongArray get(int index) {
+        return stripes.get(index);
+    }
+
+    private static int stripesFor(int processors) {
+        // A power of two, at least the number of processors, and no more than 16 stripes.
+        int max = Math.min(16, processors);
+        int stripes = 1;
+        while (stripes < max) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
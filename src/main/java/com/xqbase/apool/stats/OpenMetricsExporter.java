@@ -0,0 +1,336 @@
+package com.xqbase.apool.stats;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.xqbase.apool.AsyncPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Write the statistics of pools in the OpenMetrics text format, labelled by pool name,
+ * and optionally serve them over HTTP with the server built into the JDK.
+ *
+ * The pools stream their values through {@link StatsVisitor}, so a scrape builds no
+ * {@link PoolStats} snapshot. The values are sorted into one reused buffer per metric
+ * family, since OpenMetrics wants the samples of a family together. Latencies are
+ * written as summaries in seconds and rates as gauges labelled by window.
+ *
+ * @author Tony He
+ */
+public class OpenMetricsExporter {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    private static final String PREFIX = "apool_";
+
+    private final Iterable<? extends AsyncPool<?>> pools;
+    private final Visitor visitor = new Visitor();
+    // Guarded by this, reused by every scrape.
+    private final StringBuilder out = new StringBuilder();
+    private HttpServer server = null;
+
+    /**
+     * Construct an exporter of the given pools.
+     *
+     * @param pools the pools, e.g. a live view of a pool map, iterated on every scrape.
+     */
+    public OpenMetricsExporter(Iterable<? extends AsyncPool<?>> pools) {
+        this.pools = pools;
+    }
+
+    /**
+     * Write the statistics of all pools.
+     *
+     * @param appendable where to write to.
+     * @throws IOException if the appendable fails.
+     */
+    public synchronized void write(Appendable appendable) throws IOException {
+        appendable.append(scrape());
+    }
+
+    /**
+     * Serve the statistics at /metrics of the given address.
+     *
+     * @param address the address to listen to.
+     * @throws IOException if the server can not be started.
+     */
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Already serving at " + server.getAddress());
+        }
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body;
+                synchronized (OpenMetricsExporter.this) {
+                    body = scrape().toString().getBytes(StandardCharsets.UTF_8);
+                }
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Get the address the statistics are served at.
+     *
+     * @return the address or null if not serving.
+     */
+    public synchronized InetSocketAddress getAddress() {
+        return server != null ? server.getAddress() : null;
+    }
+
+    /**
+     * Stop serving.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * Collect the statistics of all pools, must be called holding this.
+     *
+     * @return the text, valid until the next scrape.
+     */
+    private StringBuilder scrape() {
+        visitor.clear();
+        for (AsyncPool<?> pool : pools) {
+            pool.visitStats(visitor);
+        }
+        out.setLength(0);
+        visitor.appendTo(out);
+        out.append("# EOF\n");
+        return out;
+    }
+
+    /**
+     * Sorts the values of the pools into their families.
+     */
+    private static final class Visitor implements StatsVisitor {
+
+        private final Map<Gauge, StringBuilder> gauges = new EnumMap<>(Gauge.class);
+        private final Map<Counter, StringBuilder> counters = new EnumMap<>(Counter.class);
+        private final Map<Latency, StringBuilder> latencies = new EnumMap<>(Latency.class);
+        private final Map<Rate, StringBuilder> rates = new EnumMap<>(Rate.class);
+        private String poolName;
+
+        Visitor() {
+            for (Gauge gauge : Gauge.values()) {
+                gauges.put(gauge, new StringBuilder());
+            }
+            for (Counter counter : Counter.values()) {
+                counters.put(counter, new StringBuilder());
+            }
+            for (Latency latency : Latency.values()) {
+                latencies.put(latency, new StringBuilder());
+            }
+            for (Rate rate : Rate.values()) {
+                rates.put(rate, new StringBuilder());
+            }
+        }
+
+        void clear() {
+            for (StringBuilder sb : gauges.values()) {
+                sb.setLength(0);
+            }
+            for (StringBuilder sb : counters.values()) {
+                sb.setLength(0);
+            }
+            for (StringBuilder sb : latencies.values()) {
+                sb.setLength(0);
+            }
+            for (StringBuilder sb : rates.values()) {
+                sb.setLength(0);
+            }
+        }
+
+        void appendTo(StringBuilder out) {
+            for (Gauge gauge : Gauge.values()) {
+                family(out, name(gauge), "gauge", help(gauge), gauges.get(gauge));
+            }
+            for (Counter counter : Counter.values()) {
+                family(out, name(counter), "counter", help(counter), counters.get(counter));
+            }
+            for (Latency latency : Latency.values()) {
+                family(out, name(latency), "summary", help(latency), latencies.get(latency));
+            }
+            for (Rate rate : Rate.values()) {
+                family(out, name(rate), "gauge", help(rate), rates.get(rate));
+            }
+        }
+
+        @Override
+        public void visitPool(String poolName) {
+            this.poolName = poolName;
+        }
+
+        @Override
+        public void visitGauge(Gauge gauge, long value) {
+            StringBuilder sb = gauges.get(gauge);
+            sample(sb, name(gauge), "").append(value).append('\n');
+        }
+
+        @Override
+        public void visitCounter(Counter counter, long value) {
+            StringBuilder sb = counters.get(counter);
+            sample(sb, name(counter), "_total").append(value).append('\n');
+        }
+
+        @Override
+        public void visitLatency(Latency latency, long count, long sum, long p50, long p90, long p99, long p999,
+                long max) {
+            StringBuilder sb = latencies.get(latency);
+            String name = name(latency);
+            quantile(sb, name, "0.5", p50);
+            quantile(sb, name, "0.9", p90);
+            quantile(sb, name, "0.99", p99);
+            quantile(sb, name, "0.999", p999);
+            seconds(sample(sb, name, "_sum"), sum);
+            sample(sb, name, "_count").append(count).append('\n');
+        }
+
+        @Override
+        public void visitRate(Rate rate, double last1s, double last10s, double last60s) {
+            StringBuilder sb = rates.get(rate);
+            String name = name(rate);
+            labels(sb, name, "").append(",window=\"1s\"} ").append(last1s).append('\n');
+            labels(sb, name, "").append(",window=\"10s\"} ").append(last10s).append('\n');
+            labels(sb, name, "").append(",window=\"60s\"} ").append(last60s).append('\n');
+        }
+
+        private StringBuilder sample(StringBuilder sb, String name, String suffix) {
+            return labels(sb, name, suffix).append("} ");
+        }
+
+        // Open the labels of a sample, with the pool label.
+        private StringBuilder labels(StringBuilder sb, String name, String suffix) {
+            sb.append(PREFIX).append(name).append(suffix).append("{pool=\"");
+            for (int i = 0; i < poolName.length(); i++) {
+                char c = poolName.charAt(i);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.append('"');
+        }
+
+        private void quantile(StringBuilder sb, String name, String quantile, long micros) {
+            seconds(labels(sb, name, "").append(",quantile=\"").append(quantile).append("\"} "), micros);
+        }
+
+        // Fixed point seconds, digit by digit so that nothing is allocated.
+        private static void seconds(StringBuilder sb, long micros) {
+            sb.append(micros / 1000000).append('.');
+            for (long unit = 100000; unit > 0; unit /= 10) {
+                sb.append((char) ('0' + micros / unit % 10));
+            }
+            sb.append('\n');
+        }
+
+        private static void family(StringBuilder out, String name, String type, String help, StringBuilder samples) {
+            if (samples.length() == 0) {
+                return;
+            }
+            out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+            out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+            out.append(samples);
+        }
+
+        private static String name(Gauge gauge) {
+            switch (gauge) {
+                case MAX_POOL_SIZE: return "max_pool_size";
+                case MIN_POOL_SIZE: return "min_pool_size";
+                case POOL_SIZE: return "pool_size";
+                case CHECKED_OUT: return "checked_out";
+                default: return "idle";
+            }
+        }
+
+        private static String help(Gauge gauge) {
+            switch (gauge) {
+                case MAX_POOL_SIZE: return "The maximum pool size.";
+                case MIN_POOL_SIZE: return "The minimum pool size.";
+                case POOL_SIZE: return "The number of pool objects, including those being created.";
+                case CHECKED_OUT: return "The number of checked out pool objects.";
+                default: return "The number of idle pool objects.";
+            }
+        }
+
+        private static String name(Counter counter) {
+            switch (counter) {
+                case CREATED: return "created";
+                case CREATE_ERRORS: return "create_errors";
+                case DESTROYED: return "destroyed";
+                case DESTROY_ERRORS: return "destroy_errors";
+                case BAD_DESTROYED: return "bad_destroyed";
+                default: return "idle_timeouts";
+            }
+        }
+
+        private static String help(Counter counter) {
+            switch (counter) {
+                case CREATED: return "Pool objects created.";
+                case CREATE_ERRORS: return "Lifecycle create errors.";
+                case DESTROYED: return "Pool objects destroyed.";
+                case DESTROY_ERRORS: return "Lifecycle destroy errors.";
+                case BAD_DESTROYED: return "Pool objects destroyed as bad.";
+                default: return "Idle pool objects destroyed after the idle timeout.";
+            }
+        }
+
+        private static String name(Latency latency) {
+            switch (latency) {
+                case WAIT: return "wait_seconds";
+                case CREATE: return "create_seconds";
+                case HOLD: return "hold_seconds";
+                default: return "destroy_seconds";
+            }
+        }
+
+        private static String help(Latency latency) {
+            switch (latency) {
+                case WAIT: return "Time queued gets waited for a pool object.";
+                case CREATE: return "Time lifecycle creates took to succeed.";
+                case HOLD: return "Time pool objects were checked out.";
+                default: return "Time lifecycle destroys took.";
+            }
+        }
+
+        private static String name(Rate rate) {
+            switch (rate) {
+                case ACQUIRE: return "acquire_rate";
+                case CREATE: return "create_rate";
+                case CREATE_ERROR: return "create_error_rate";
+                case TIMEOUT: return "timeout_rate";
+                default: return "reject_rate";
+            }
+        }
+
+        private static String help(Rate rate) {
+            switch (rate) {
+                case ACQUIRE: return "Pool objects checked out per second.";
+                case CREATE: return "Pool objects created per second.";
+                case CREATE_ERROR: return "Lifecycle create errors per second.";
+                case TIMEOUT: return "Gets timed out waiting per second.";
+                default: return "Gets rejected per second.";
+            }
+        }
+    }
+}
@@ -22,7 +22,7 @@ public interface PoolStats {
      *
      * @return the total number of pool objects created.
      */
-    int getTotalCreated();
+    long getTotalCreated();
 
     /**
      * Get the total number of pool objects destroyed
@@ -33,7 +33,7 @@ public interface PoolStats {
      *
      * @return The total number of pool objects destroyed.
      */
-    int getTotalDestroyed();
+    long getTotalDestroyed();
 
     /**
      * Get the total number of lifecycle create errors between
@@ -41,7 +41,7 @@ public interface PoolStats {
      *
      * @return The total number of create errors.
      */
-    int getTotalCreatedErrors();
+    long getTotalCreatedErrors();
 
     /**
      * Get the total number of lifecycle destroy errors between
@@ -49,7 +49,7 @@ public interface PoolStats {
      *
      * @return The total number of destroy errors.
      */
-    int getTotalDestroyErrors();
+    long getTotalDestroyErrors();
 
     /**
      * Get the total number of pool objects destroyed because of
@@ -58,7 +58,7 @@ public interface PoolStats {
      *
      * @return The total number of bad destroyed pool objects.
      */
-    int getTotalBadDestroyed();
+    long getTotalBadDestroyed();
 
     /**
      * Get the total number of timed out pool objects between
@@ -66,7 +66,7 @@ public interface PoolStats {
      *
      * @return The total number of timed out pool objects.
      */
-    int getTotalTimeout();
+    long getTotalTimeout();
 
     /**
      * Get the number of pool objects checked out at the time
@@ -104,4 +104,70 @@ public interface PoolStats {
      * @return The number of idle objects.
      */
     int getIdleCount();
+
+    /**
+     * Get the time gets spent waiting for an object, in microseconds.
+     * Only gets which had to queue are included.
+     *
+     * @return The wait time percentiles.
+     */
+    LatencyStats getWaitTime();
+
+    /**
+     * Get the time lifecycle creates took to succeed, in microseconds.
+     *
+     * @return The create time percentiles.
+     */
+    LatencyStats getCreateTime();
+
+    /**
+     * Get the time objects were checked out before they were
+     * put back or disposed, in microseconds.
+     *
+     * @return The hold time percentiles.
+     */
+    LatencyStats getHoldTime();
+
+    /**
+     * Get the time lifecycle destroys took, in microseconds.
+     *
+     * @return The destroy time percentiles.
+     */
+    LatencyStats getDestroyTime();
+
+    /**
+     * Get the rate of objects checked out over the last 1, 10 and 60 seconds.
+     *
+     * @return The acquire rates.
+     */
+    RateStats getAcquireRate();
+
+    /**
+     * Get the rate of pool objects created over the last 1, 10 and 60 seconds.
+     *
+     * @return The create rates.
+     */
+    RateStats getCreateRate();
+
+    /**
+     * Get the rate of lifecycle create errors over the last 1, 10 and 60 seconds.
+     *
+     * @return The create error rates.
+     */
+    RateStats getCreateErrorRate();
+
+    /**
+     * Get the rate of gets which timed out waiting over the last 1, 10 and 60 seconds.
+     *
+     * @return The timeout rates.
+     */
+    RateStats getTimeoutRate();
+
+    /**
+     * Get the rate of gets which were rejected because too many were
+     * waiting or the pool was overloaded over the last 1, 10 and 60 seconds.
+     *
+     * @return The rejection rates.
+     */
+    RateStats getRejectRate();
 }
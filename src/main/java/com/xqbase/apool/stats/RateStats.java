@@ -0,0 +1,38 @@
+package com.xqbase.apool.stats;
+
+/**
+ * A snapshot of the rates of a {@link RateWindow}, in events per second.
+ *
+ * @author Tony He
+ */
+public class RateStats {
+
+    public static final RateStats EMPTY = new RateStats(0, 0, 0);
+
+    private final double last1s;
+    private final double last10s;
+    private final double last60s;
+
+    public RateStats(double last1s, double last10s, double last60s) {
+        this.last1s = last1s;
+        this.last10s = last10s;
+        this.last60s = last60s;
+    }
+
+    public double getLast1s() {
+        return last1s;
+    }
+
+    public double getLast10s() {
+        return last10s;
+    }
+
+    public double getLast60s() {
+        return last60s;
+    }
+
+    @Override
+    public String toString() {
+        return "1s=" + last1s + "/s 10s=" + last10s + "/s 60s=" + last60s + "/s";
+    }
+}
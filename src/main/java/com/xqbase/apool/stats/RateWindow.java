@@ -0,0 +1,101 @@
+package com.xqbase.apool.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free count of events per second over the last minute. Each slot of the ring
+ * packs the second it counts for with the count, so a slot is moved on to a new second
+ * and counted in a single CAS, nothing is reset in the background, and no event is lost
+ * when the second turns over.
+ *
+ * The ring is striped over threads with {@link LongArrayStripes}, so that threads counting
+ * in the same second don't all CAS the same slot.
+ *
+ * The rates are taken over whole seconds, the current second is not complete and is
+ * left out.
+ *
+ * @author Tony He
+ */
+public class RateWindow {
+
+    private static final int SECONDS = 60;
+    // One more slot than the window, for the current second.
+    private static final int SLOTS = SECONDS + 1;
+    private static final int COUNT_BITS = 40;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final LongArrayStripes slots = new LongArrayStripes(SLOTS);
+
+    /**
+     * Count an event.
+     *
+     * @param now the current time in milliseconds.
+     */
+    public void record(long now) {
+        long second = now / 1000;
+        int index = (int) (second % SLOTS);
+        long tag = tag(second);
+        AtomicLongArray ring = slots.stripe();
+        for (;;) {
+            long slot = ring.get(index);
+            long next = (slot >>> COUNT_BITS) == tag ? slot + 1 : (tag << COUNT_BITS) | 1;
+            if (ring.compareAndSet(index, slot, next)) {
+                return;
+            }
+            ring = slots.contended();
+        }
+    }
+
+    /**
+     * Get the average number of events per second over the last whole seconds.
+     *
+     * @param seconds how many seconds to look back, from 1 to 60.
+     * @param now the current time in milliseconds.
+     * @return the rate in events per second.
+     */
+    public double getRate(int seconds, long now) {
+        if (seconds < 1 || seconds > SECONDS) {
+            throw new IllegalArgumentException("Invalid window " + seconds + "s");
+        }
+        long current = now / 1000;
+        long count = 0;
+        for (int i = 0; i < slots.maxStripes(); i++) {
+            AtomicLongArray ring = slots.get(i);
+            if (ring == null) {
+                continue;
+            }
+            for (long second = current - seconds; second < current; second++) {
+                long slot = ring.get((int) (second % SLOTS));
+                if ((slot >>> COUNT_BITS) == tag(second)) {
+                    count += slot & COUNT_MASK;
+                }
+            }
+        }
+        return (double) count / seconds;
+    }
+
+    /**
+     * Take a snapshot of the rates over the last 1, 10 and 60 seconds.
+     *
+     * @return the snapshot.
+     */
+    public RateStats snapshot() {
+        long now = System.currentTimeMillis();
+        return new RateStats(getRate(1, now), getRate(10, now), getRate(60, now));
+    }
+
+    /**
+     * Hand the rates over the last 1, 10 and 60 seconds to a visitor, without allocating.
+     *
+     * @param visitor the visitor.
+     * @param rate which rate this window counts.
+     */
+    public void accept(StatsVisitor visitor, StatsVisitor.Rate rate) {
+        long now = System.currentTimeMillis();
+        visitor.visitRate(rate, getRate(1, now), getRate(10, now), getRate(60, now));
+    }
+
+    private static long tag(long second) {
+        return second & ((1L << (64 - COUNT_BITS)) - 1);
+    }
+}
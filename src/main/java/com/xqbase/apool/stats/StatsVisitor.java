@@ -0,0 +1,75 @@
+package com.xqbase.apool.stats;
+
+/**
+ * Receives the statistics of a pool one value at a time, so that they can be streamed,
+ * e.g. by {@link OpenMetricsExporter}, without building a {@link PoolStats} snapshot.
+ *
+ * @author Tony He
+ */
+public interface StatsVisitor {
+
+    enum Gauge { MAX_POOL_SIZE, MIN_POOL_SIZE, POOL_SIZE, CHECKED_OUT, IDLE_COUNT }
+    enum Counter { CREATED, CREATE_ERRORS, DESTROYED, DESTROY_ERRORS, BAD_DESTROYED, TIMEOUT }
+    enum Latency { WAIT, CREATE, HOLD, DESTROY }
+    enum Rate { ACQUIRE, CREATE, CREATE_ERROR, TIMEOUT, REJECT }
+
+    /**
+     * Start the values of a pool, the following calls are about it.
+     *
+     * @param poolName the name of the pool.
+     */
+    void visitPool(String poolName);
+
+    void visitGauge(Gauge gauge, long value);
+
+    void visitCounter(Counter counter, long value);
+
+    /**
+     * Receive the count, sum and percentiles of a {@link LatencyHistogram}, in microseconds.
+     */
+    void visitLatency(Latency latency, long count, long sum, long p50, long p90, long p99, long p999, long max);
+
+    /**
+     * Receive the rates of a {@link RateWindow}, in events per second.
+     */
+    void visitRate(Rate rate, double last1s, double last10s, double last60s);
+
+    /**
+     * Walk a {@link PoolStats} snapshot, for pools which do not stream their statistics.
+     *
+     * @param stats the snapshot.
+     * @param visitor the visitor.
+     */
+    static void visit(PoolStats stats, StatsVisitor visitor) {
+        visitor.visitPool(stats.getPoolName());
+        visitor.visitGauge(Gauge.MAX_POOL_SIZE, stats.getMaxPoolSize());
+        visitor.visitGauge(Gauge.MIN_POOL_SIZE, stats.getMinPoolSize());
+        visitor.visitGauge(Gauge.POOL_SIZE, stats.getPoolSize());
+        visitor.visitGauge(Gauge.CHECKED_OUT, stats.getCheckedOut());
+        visitor.visitGauge(Gauge.IDLE_COUNT, stats.getIdleCount());
+        visitor.visitCounter(Counter.CREATED, stats.getTotalCreated());
+        visitor.visitCounter(Counter.CREATE_ERRORS, stats.getTotalCreatedErrors());
+        visitor.visitCounter(Counter.DESTROYED, stats.getTotalDestroyed());
+        visitor.visitCounter(Counter.DESTROY_ERRORS, stats.getTotalDestroyErrors());
+        visitor.visitCounter(Counter.BAD_DESTROYED, stats.getTotalBadDestroyed());
+        visitor.visitCounter(Counter.TIMEOUT, stats.getTotalTimeout());
+        visit(visitor, Latency.WAIT, stats.getWaitTime());
+        visit(visitor, Latency.CREATE, stats.getCreateTime());
+        visit(visitor, Latency.HOLD, stats.getHoldTime());
+        visit(visitor, Latency.DESTROY, stats.getDestroyTime());
+        visit(visitor, Rate.ACQUIRE, stats.getAcquireRate());
+        visit(visitor, Rate.CREATE, stats.getCreateRate());
+        visit(visitor, Rate.CREATE_ERROR, stats.getCreateErrorRate());
+        visit(visitor, Rate.TIMEOUT, stats.getTimeoutRate());
+        visit(visitor, Rate.REJECT, stats.getRejectRate());
+    }
+
+    private static void visit(StatsVisitor visitor, Latency latency, LatencyStats stats) {
+        visitor.visitLatency(latency, stats.getCount(), stats.getSum(), stats.getP50(), stats.getP90(), stats.getP99(),
+                stats.getP999(), stats.getMax());
+    }
+
+    private static void visit(StatsVisitor visitor, Rate rate, RateStats stats) {
+        visitor.visitRate(rate, stats.getLast1s(), stats.getLast10s(), stats.getLast60s());
+    }
+}
@@ -0,0 +1,165 @@
+package com.xqbase.apool.util;
+
+import java.util.Collection;
+
+/**
+ * A hashed timing wheel. Each {@link Timeout} is hashed into a bucket by its deadline
+ * tick, so adding and cancelling run in O(1) time, and expiring costs one bucket per
+ * elapsed tick plus the expired timeouts. A deadline is rounded up to the next tick,
+ * a timeout never expires early and expires at most one tick late.
+ *
+ * Timeouts are intrusive, the scheduled object extends {@link Timeout} itself, so
+ * scheduling allocates nothing, and a timeout may be added again after it expired or
+ * was cancelled.
+ *
+ * This is not thread safe.
+ *
+ * @author Tony He
+ */
+public class HashedTimingWheel<E extends HashedTimingWheel.Timeout<E>> {
+
+    /**
+     * The node of a scheduled object.
+     */
+    public abstract static class Timeout<E extends Timeout<E>> {
+
+        // Package private rather than private, so that the wheel can reach them through E.
+        HashedTimingWheel<E> wheel;
+        long tick;
+        E prev;
+        E next;
+
+        /**
+         * Whether this timeout is currently scheduled on a wheel.
+         *
+         * @return true if scheduled.
+         */
+        public boolean isScheduled() {
+            return wheel != null;
+        }
+    }
+
+    private final long tickDuration;
+    private final E[] buckets;
+    private final int mask;
+    private long currentTick;
+    private int size;
+
+    /**
+     * Construct a new wheel.
+     *
+     * @param tickDuration the duration of a tick in milliseconds.
+     * @param ticksPerWheel the number of buckets, rounded up to a power of two.
+     * @param now the current time in milliseconds.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public HashedTimingWheel(long tickDuration, int ticksPerWheel, long now) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be positive: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel out of range: " + ticksPerWheel);
+        }
+        int length = 1;
+        while (length < ticksPerWheel) {
+            length <<= 1;
+        }
+        this.tickDuration = tickDuration;
+        this.buckets = (E[]) new Timeout[length];
+        this.mask = length - 1;
+        this.currentTick = now / tickDuration;
+    }
+
+    /**
+     * Schedule a timeout. If it is already scheduled, it is moved to the new deadline.
+     *
+     * @param timeout the timeout.
+     * @param deadline the deadline in milliseconds.
+     */
+    public void add(E timeout, long deadline) {
+        if (timeout.wheel != null) {
+            cancel(timeout);
+        }
+        // Round up, and never into a tick which has already been expired.
+        long tick = Math.max((deadline + tickDuration - 1) / tickDuration, currentTick + 1);
+        int index = (int) (tick & mask);
+        timeout.wheel = this;
+        timeout.tick = tick;
+        timeout.prev = null;
+        timeout.next = buckets[index];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        buckets[index] = timeout;
+        size ++;
+    }
+
+    /**
+     * Cancel a timeout.
+     *
+     * @param timeout the timeout.
+     * @return true if the timeout was scheduled on this wheel.
+     */
+    public boolean cancel(E timeout) {
+        if (timeout.wheel != this) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    /**
+     * Expire all timeouts whose deadline is not after the given time.
+     *
+     * @param now the current time in milliseconds.
+     * @param expired collects the expired timeouts.
+     */
+    public void expire(long now, Collection<? super E> expired) {
+        long targetTick = now / tickDuration;
+        if (targetTick <= currentTick) {
+            return;
+        }
+        // Walk each bucket at most once, however many ticks we are late.
+        long ticks = Math.min(targetTick - currentTick, buckets.length);
+        for (long i = 1; i <= ticks && size > 0; i++) {
+            E timeout = buckets[(int) ((currentTick + i) & mask)];
+            while (timeout != null) {
+                E next = timeout.next;
+                if (timeout.tick <= targetTick) {
+                    unlink(timeout);
+                    expired.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+        currentTick = targetTick;
+    }
+
+    /**
+     * Get the number of scheduled timeouts.
+     *
+     * @return the number of scheduled timeouts.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void unlink(E timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[(int) (timeout.tick & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.wheel = null;
+        timeout.prev = null;
+        timeout.next = null;
+        size --;
+    }
+}
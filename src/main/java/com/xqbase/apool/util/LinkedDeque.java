@@ -30,6 +30,10 @@ public class LinkedDeque<T> extends AbstractDeque<T> {
             this.queue = queue;
             this.value = value;
         }
+
+        public T getValue() {
+            return value;
+        }
     }
 
     private Node<T> head;
@@ -108,6 +112,9 @@ public class LinkedDeque<T> extends AbstractDeque<T> {
         } else {
             node.next = before;
             node.prev = before.prev;
+            if (before.prev != null) {
+                before.prev.next = node;
+            }
             before.prev = node;
             if (before == head) {
                 head = node;
@@ -147,6 +154,7 @@ public class LinkedDeque<T> extends AbstractDeque<T> {
         }
         node.next = null;
         node.prev = null;
+        size --;
         return node.value;
     }
 
@@ -0,0 +1,51 @@
+package com.xqbase.apool.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A random per-thread number which spreads threads over stripes, like the probe
+ * {@link java.util.concurrent.atomic.LongAdder} keeps per thread. A thread which meets
+ * contention on its stripe advances its probe, so that it works on another stripe from
+ * now on.
+ *
+ * @author Tony He
+ */
+public final class ThreadProbe {
+
+    // Never 0 once set.
+    private static final ThreadLocal<int[]> PROBE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[] {ThreadLocalRandom.current().nextInt() | 1};
+        }
+    };
+
+    private ThreadProbe() {
+
+    }
+
+    /**
+     * Get the probe of the calling thread.
+     *
+     * @return the probe, never 0.
+     */
+    public static int get() {
+        return PROBE.get()[0];
+    }
+
+    /**
+     * Move the calling thread to another probe.
+     *
+     * @return the new probe, never 0.
+     */
+    public static int advance() {
+        int[] probe = PROBE.get();
+        // The xorshift step of ThreadLocalRandom.advanceProbe.
+        int h = probe[0];
+        h ^= h << 13;
+        h ^= h >>> 17;
+        h ^= h << 5;
+        probe[0] = h;
+        return h;
+    }
+}
@@ -0,0 +1,1455 @@
+package com.xqbase.apool.impl;
+
+import com.xqbase.apool.AsyncValidator;
+import com.xqbase.apool.LeakDetector;
+import com.xqbase.apool.Lease;
+import com.xqbase.apool.PoolListener;
+import com.xqbase.apool.callback.AcquireFuture;
+import com.xqbase.apool.callback.Callback;
+import com.xqbase.apool.callback.FutureCallback;
+import com.xqbase.apool.exceptions.AcquireTimeoutException;
+import com.xqbase.apool.exceptions.OverloadException;
+import com.xqbase.apool.exceptions.SizeLimitExceededException;
+import com.xqbase.apool.jmx.AsyncPoolManagement;
+import com.xqbase.apool.stats.PoolStats;
+import com.xqbase.apool.util.None;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Behavioral tests of {@link AsyncPoolImpl}.
+ *
+ * @author Tony He
+ */
+public class AsyncPoolImplTest {
+
+    private static final long WAIT = 5;
+
+    private ScheduledExecutorService executor;
+    private TestLifeCycle lifeCycle;
+    private AsyncPoolImpl<Object> pool;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newScheduledThreadPool(2);
+        lifeCycle = new TestLifeCycle();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (pool != null && pool.getStats().getCheckedOut() == 0) {
+            FutureCallback<None> done = new FutureCallback<>();
+            pool.shutdown(done);
+            done.get(WAIT, TimeUnit.SECONDS);
+        }
+        executor.shutdownNow();
+    }
+
+    private AsyncPoolImpl<Object> newPool(int maxSize) {
+        return new AsyncPoolImpl<>("test", maxSize, 0, lifeCycle, executor);
+    }
+
+    private AsyncPoolImpl<Object> newPool(int maxSize, int minSize, long idleTimeout) {
+        return new AsyncPoolImpl<>("test", maxSize, idleTimeout, lifeCycle, executor, executor, Integer.MAX_VALUE,
+                minSize, AsyncPoolImpl.Strategy.LRU);
+    }
+
+    private Object get() throws Exception {
+        FutureCallback<Object> callback = new FutureCallback<>();
+        pool.get(callback);
+        return callback.get(WAIT, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void waitersAreServedInOrder() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        Object obj = get();
+
+        List<FutureCallback<Object>> waiters = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            FutureCallback<Object> waiter = new FutureCallback<>();
+            pool.get(waiter);
+            waiters.add(waiter);
+        }
+        for (int i = 0; i < waiters.size(); i++) {
+            pool.put(obj);
+            for (int j = 0; j < waiters.size(); j++) {
+                assertEquals("waiter " + j + " after put " + i, j <= i, waiters.get(j).isDone());
+            }
+            obj = waiters.get(i).get(WAIT, TimeUnit.SECONDS);
+        }
+        pool.put(obj);
+    }
+
+    @Test
+    public void noWaiterStarvesWhileOthersChurn() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch stopped = new CountDownLatch(4);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < 4; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!stop.get()) {
+                            FutureCallback<Object> callback = new FutureCallback<>();
+                            pool.get(callback);
+                            pool.put(callback.get(WAIT, TimeUnit.SECONDS));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        stopped.countDown();
+                    }
+                }
+            }).start();
+        }
+        try {
+            for (int i = 0; i < 50; i++) {
+                FutureCallback<Object> callback = new FutureCallback<>();
+                pool.get(callback, 2, TimeUnit.SECONDS);
+                pool.put(callback.get(WAIT, TimeUnit.SECONDS));
+            }
+        } finally {
+            stop.set(true);
+            assertTrue(stopped.await(WAIT, TimeUnit.SECONDS));
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("a churning thread failed", failure.get());
+        }
+        assertEquals(0, pool.getStats().getCheckedOut());
+    }
+
+    @Test
+    public void getTimesOutAndLeavesTheObjectForOthers() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        Object obj = get();
+
+        FutureCallback<Object> waiter = new FutureCallback<>();
+        long start = System.currentTimeMillis();
+        pool.get(waiter, 50, TimeUnit.MILLISECONDS);
+        try {
+            waiter.get(WAIT, TimeUnit.SECONDS);
+            fail("the waiter was served");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AcquireTimeoutException);
+        }
+        assertTrue(System.currentTimeMillis() - start >= 50);
+
+        // The timed out waiter is gone, the object goes idle.
+        pool.put(obj);
+        assertEquals(1, pool.getStats().getIdleCount());
+        assertSame(obj, get());
+        pool.put(obj);
+    }
+
+    @Test
+    public void acquireCompletesOnceAnObjectIsFree() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        Object obj = pool.acquire().toCompletableFuture().get(WAIT, TimeUnit.SECONDS);
+
+        CompletableFuture<Object> next = pool.acquire().toCompletableFuture();
+        assertFalse(next.isDone());
+        pool.put(obj);
+        assertSame(obj, next.get(WAIT, TimeUnit.SECONDS));
+
+        try {
+            pool.acquire(50, TimeUnit.MILLISECONDS).toCompletableFuture().get(WAIT, TimeUnit.SECONDS);
+            fail("acquired a second object");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AcquireTimeoutException);
+        }
+        pool.put(obj);
+    }
+
+    @Test
+    public void cancelledAcquireNeverLeaksTheObject() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        Object obj = get();
+
+        // Cancelled while queued, the waiter is gone.
+        CompletableFuture<Object> queued = pool.acquire().toCompletableFuture();
+        assertTrue(queued.cancel(true));
+        pool.put(obj);
+        assertEquals(1, pool.getStats().getIdleCount());
+
+        // Cancelled while the object was on its way, it goes back to the pool.
+        obj = get();
+        AcquireFuture<Object> late = new AcquireFuture<>(pool);
+        assertTrue(late.cancel(true));
+        late.onSuccess(obj);
+        assertEquals(0, pool.getStats().getCheckedOut());
+        assertEquals(1, pool.getStats().getIdleCount());
+    }
+
+    @Test
+    public void borrowParksUntilAnObjectIsReturned() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        final Object obj = pool.borrow(-1, TimeUnit.MILLISECONDS);
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pool.put(obj);
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        assertSame(obj, pool.borrow(WAIT, TimeUnit.SECONDS));
+
+        try {
+            pool.borrow(50, TimeUnit.MILLISECONDS);
+            fail("borrowed a second object");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AcquireTimeoutException);
+        }
+        pool.put(obj);
+    }
+
+    @Test
+    public void interruptedBorrowLeavesTheQueue() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        Object obj = get();
+        final BlockingQueue<Throwable> failures = new LinkedBlockingQueue<>();
+        Thread borrower = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    failures.add(new AssertionError("borrowed " + pool.borrow(-1, TimeUnit.MILLISECONDS)));
+                } catch (Exception e) {
+                    failures.add(e);
+                }
+            }
+        });
+        borrower.start();
+        long deadline = System.currentTimeMillis() + WAIT * 1000;
+        // Parked as a waiter.
+        while (borrower.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        borrower.interrupt();
+        assertTrue(failures.poll(WAIT, TimeUnit.SECONDS) instanceof InterruptedException);
+
+        pool.put(obj);
+        assertEquals(1, pool.getStats().getIdleCount());
+    }
+
+    @Test
+    public void leaseReturnsOnceAndIsTrackedUntilThen() throws Exception {
+        pool = newPool(2);
+        LeakDetector detector = new LeakDetector("test", 1, 20, executor);
+        pool.setLeakDetector(detector);
+        pool.start();
+        try {
+            Lease<Object> lease = pool.acquireLease().toCompletableFuture().get(WAIT, TimeUnit.SECONDS);
+            Thread.sleep(50);
+            assertEquals(1, detector.getLeakCount());
+
+            lease.release();
+            lease.release();
+            lease.dispose();
+            assertTrue(lease.isReturned());
+            assertEquals(0, detector.getLeakCount());
+            assertEquals(0, pool.getStats().getCheckedOut());
+            assertEquals(1, pool.getStats().getIdleCount());
+            assertEquals(0, lifeCycle.destroyed.get());
+
+            try (Lease<Object> again = pool.acquireLease().toCompletableFuture().get(WAIT, TimeUnit.SECONDS)) {
+                assertSame(lease.get(), again.get());
+            }
+            assertEquals(1, pool.getStats().getIdleCount());
+        } finally {
+            detector.close();
+        }
+    }
+
+    @Test
+    public void leaseClosedInAFailingStageGoesBack() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        CompletableFuture<Object> work = pool.acquireLease().thenApply(new Function<Lease<Object>, Object>() {
+            @Override
+            public Object apply(Lease<Object> lease) {
+                try (Lease<Object> held = lease) {
+                    throw new IllegalStateException("failed to work on " + held.get());
+                }
+            }
+        }).toCompletableFuture();
+        try {
+            work.get(WAIT, TimeUnit.SECONDS);
+            fail("the stage must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(0, pool.getStats().getCheckedOut());
+        assertEquals(1, pool.getStats().getIdleCount());
+    }
+
+    @Test
+    public void droppedLeaseIsReportedAndForgotten() throws Exception {
+        pool = newPool(1);
+        LeakDetector detector = new LeakDetector("test", 1, 20, executor);
+        pool.setLeakDetector(detector);
+        pool.start();
+        try {
+            pool.acquireLease().toCompletableFuture().get(WAIT, TimeUnit.SECONDS);
+            Thread.sleep(50);
+            assertEquals(1, detector.getLeakCount());
+
+            // Never returned, the lease itself is garbage now.
+            long deadline = System.currentTimeMillis() + WAIT * 1000;
+            while (detector.getLeakCount() > 0 && System.currentTimeMillis() < deadline) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertEquals(0, detector.getLeakCount());
+            assertEquals(1, pool.getStats().getCheckedOut());
+        } finally {
+            detector.close();
+        }
+    }
+
+    private static CompletableFuture<Throwable> subscribeLeases(AsyncPoolImpl<Object> pool) {
+        CompletableFuture<Throwable> failed = new CompletableFuture<>();
+        pool.leases().subscribe(new Flow.Subscriber<Lease<Object>>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Lease<Object> lease) {
+                lease.release();
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                failed.complete(e);
+            }
+
+            @Override
+            public void onComplete() {
+                failed.complete(null);
+            }
+        });
+        return failed;
+    }
+
+    @Test
+    public void leasesFailOnAStoppedPool() throws Exception {
+        AsyncPoolImpl<Object> stopped = newPool(2);
+        stopped.start();
+        FutureCallback<None> done = new FutureCallback<>();
+        stopped.shutdown(done);
+        done.get(WAIT, TimeUnit.SECONDS);
+
+        Throwable e = subscribeLeases(stopped).get(WAIT, TimeUnit.SECONDS);
+        assertTrue(e instanceof IllegalStateException);
+    }
+
+    @Test
+    public void leasesFailOnAFullWaiterQueue() throws Exception {
+        pool = new AsyncPoolImpl<>("test", 1, 0, lifeCycle, executor, executor, 1);
+        pool.start();
+        Object obj = get();
+        FutureCallback<Object> waiter = new FutureCallback<>();
+        pool.get(waiter);
+
+        Throwable e = subscribeLeases(pool).get(WAIT, TimeUnit.SECONDS);
+        assertTrue(e instanceof SizeLimitExceededException);
+
+        pool.put(obj);
+        pool.put(waiter.get(WAIT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void objectHeldTooLongIsReclaimedForTheWaiter() throws Exception {
+        pool = newPool(1);
+        pool.setMaxHoldTime(50);
+        pool.start();
+        Object stale = get();
+
+        FutureCallback<Object> waiter = new FutureCallback<>();
+        pool.get(waiter);
+        Object fresh = waiter.get(WAIT, TimeUnit.SECONDS);
+        assertNotSame(stale, fresh);
+        assertEquals(1, lifeCycle.badDestroyed.get());
+
+        // The stale holder's put is ignored.
+        pool.put(stale);
+        assertEquals(1, pool.getStats().getCheckedOut());
+        pool.put(fresh);
+        assertEquals(0, pool.getStats().getCheckedOut());
+    }
+
+    @Test
+    public void retiringObjectHeldTooLongIsReclaimed() throws Exception {
+        // The idle timeout makes the timer look at the objects often.
+        pool = newPool(1, 0, 20);
+        pool.setMaxLifetime(50, 0);
+        pool.setMaxHoldTime(300);
+        pool.start();
+        Object stale = get();
+
+        long deadline = System.currentTimeMillis() + WAIT * 1000;
+        while (lifeCycle.badDestroyed.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        // Replaced at its max lifetime, and still reclaimed at its max hold time. A late
+        // tick may find the idle replacement past its own max lifetime and replace it too.
+        assertTrue(lifeCycle.created.get() >= 2);
+        assertEquals(1, lifeCycle.badDestroyed.get());
+        assertEquals(0, pool.getStats().getCheckedOut());
+
+        pool.put(stale);
+        assertEquals(0, pool.getStats().getCheckedOut());
+        Object fresh = get();
+        assertNotSame(stale, fresh);
+        pool.put(fresh);
+    }
+
+    @Test
+    public void threadGetsItsOwnReturnedObjectBack() throws Exception {
+        pool = newPool(2);
+        pool.setThreadAffinity(true);
+        pool.start();
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        try {
+            Callable<Object> get = new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return get();
+                }
+            };
+            Object mine = get();
+            final Object theirs = worker.submit(get).get(WAIT, TimeUnit.SECONDS);
+            pool.put(mine);
+            worker.submit(new Runnable() {
+                @Override
+                public void run() {
+                    pool.put(theirs);
+                }
+            }).get(WAIT, TimeUnit.SECONDS);
+
+            // The oldest idle object is ours, but each thread claims its own first.
+            assertSame(theirs, worker.submit(get).get(WAIT, TimeUnit.SECONDS));
+            assertSame(mine, get());
+            pool.put(mine);
+            pool.put(theirs);
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+
+    @Test
+    public void strategyDecidesWhenTheAffinityListMisses() throws Exception {
+        for (AsyncPoolImpl.Strategy strategy : AsyncPoolImpl.Strategy.values()) {
+            for (AsyncPoolImpl.IdleStore store : AsyncPoolImpl.IdleStore.values()) {
+                pool = new AsyncPoolImpl<>("test", 3, 0, lifeCycle, executor, executor, Integer.MAX_VALUE, 0, strategy);
+                pool.setThreadAffinity(true);
+                pool.setIdleStore(store);
+                pool.start();
+                final List<Object> objs = new ArrayList<>();
+                for (int i = 0; i < 3; i++) {
+                    objs.add(get());
+                }
+                for (Object obj : objs) {
+                    pool.put(obj);
+                }
+
+                // A thread which returned nothing polls the idle queue.
+                FutureTask<Object> other = new FutureTask<>(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return get();
+                    }
+                });
+                new Thread(other).start();
+                Object obj = other.get(WAIT, TimeUnit.SECONDS);
+                assertSame(strategy + " " + store, objs.get(strategy == AsyncPoolImpl.Strategy.LRU ? 0 : 2), obj);
+                pool.put(obj);
+                FutureCallback<None> done = new FutureCallback<>();
+                pool.shutdown(done);
+                done.get(WAIT, TimeUnit.SECONDS);
+            }
+        }
+        pool = null;
+    }
+
+    @Test
+    public void affinityClaimsNeverDoubleCheckOut() throws Exception {
+        final Set<Object> held = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+        final AtomicReference<String> failure = new AtomicReference<>();
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            public void destroy(Object obj, boolean error, Callback<Object> callback) {
+                if (held.contains(obj)) {
+                    failure.compareAndSet(null, "destroyed while checked out");
+                }
+                super.destroy(obj, error, callback);
+            }
+        };
+        for (AsyncPoolImpl.IdleStore store : AsyncPoolImpl.IdleStore.values()) {
+            // The idle timeout keeps the wheel reaping the objects the threads claim.
+            pool = newPool(4, 0, 1);
+            pool.setThreadAffinity(true);
+            pool.setIdleStore(store);
+            pool.start();
+            final AtomicBoolean stop = new AtomicBoolean();
+            final CountDownLatch stopped = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (!stop.get()) {
+                                Object obj = get();
+                                if (!held.add(obj)) {
+                                    failure.compareAndSet(null, "checked out twice");
+                                }
+                                if (ThreadLocalRandom.current().nextBoolean()) {
+                                    Thread.sleep(1);
+                                }
+                                held.remove(obj);
+                                pool.put(obj);
+                                if (ThreadLocalRandom.current().nextInt(4) == 0) {
+                                    // Leave the returned object idle past its timeout.
+                                    Thread.sleep(2);
+                                }
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e.toString());
+                        } finally {
+                            stopped.countDown();
+                        }
+                    }
+                }).start();
+            }
+            Thread.sleep(500);
+            stop.set(true);
+            assertTrue(stopped.await(WAIT, TimeUnit.SECONDS));
+            assertNull(store + " " + failure.get(), failure.get());
+            assertEquals(0, pool.getStats().getCheckedOut());
+            assertTrue(lifeCycle.destroyed.get() > 0);
+            FutureCallback<None> done = new FutureCallback<>();
+            pool.shutdown(done);
+            done.get(WAIT, TimeUnit.SECONDS);
+        }
+        pool = null;
+    }
+
+    @Test
+    public void equalObjectsArePooledApart() throws Exception {
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            Object newObject() {
+                return new Mutable();
+            }
+        };
+        pool = newPool(2);
+        pool.start();
+        Object a = get();
+        Object b = get();
+        assertNotSame(a, b);
+        assertEquals(a, b);
+
+        pool.put(a);
+        pool.put(b);
+        assertEquals(0, pool.getStats().getCheckedOut());
+        assertEquals(2, pool.getStats().getIdleCount());
+
+        // The second put of an equal object is still a double put.
+        pool.put(b);
+        assertEquals(2, pool.getStats().getIdleCount());
+        Object c = get();
+        Object d = get();
+        assertNotSame(c, d);
+        pool.put(c);
+        pool.put(d);
+        assertEquals(2, lifeCycle.created.get());
+        assertEquals(0, lifeCycle.destroyed.get());
+    }
+
+    @Test
+    public void objectWhoseHashChangesIsReturned() throws Exception {
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            Object newObject() {
+                return new Mutable();
+            }
+        };
+        pool = newPool(1);
+        pool.start();
+        Mutable obj = (Mutable) get();
+        obj.hash = 42;
+        pool.put(obj);
+        assertEquals(0, pool.getStats().getCheckedOut());
+        assertEquals(1, pool.getStats().getIdleCount());
+        assertSame(obj, get());
+        pool.put(obj);
+    }
+
+    /**
+     * Wait until the pool shrinks to the given size.
+     *
+     * @param size the pool size to wait for.
+     */
+    private void awaitPoolSize(int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT * 1000;
+        while (pool.getStats().getPoolSize() > size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(size, pool.getStats().getPoolSize());
+    }
+
+    @Test
+    public void idleObjectIsDestroyedAfterTheIdleTimeout() throws Exception {
+        pool = newPool(2, 0, 50);
+        pool.start();
+        pool.put(get());
+        long returned = System.currentTimeMillis();
+        awaitPoolSize(0);
+        assertTrue(System.currentTimeMillis() - returned >= 50);
+        assertEquals(1, lifeCycle.destroyed.get());
+        assertEquals(0, lifeCycle.badDestroyed.get());
+    }
+
+    @Test
+    public void unusedObjectExpiresUnderMru() throws Exception {
+        pool = new AsyncPoolImpl<>("test", 2, 50, lifeCycle, executor, executor, Integer.MAX_VALUE, 0,
+                AsyncPoolImpl.Strategy.MRU);
+        pool.start();
+        Object unused = get();
+        Object hot = get();
+        pool.put(unused);
+        pool.put(hot);
+
+        // MRU keeps handing out the hot object, the other one sits idle until it expires.
+        long deadline = System.currentTimeMillis() + WAIT * 1000;
+        while (lifeCycle.destroyed.get() == 0 && System.currentTimeMillis() < deadline) {
+            Object obj = get();
+            assertSame(hot, obj);
+            Thread.sleep(5);
+            pool.put(obj);
+        }
+        assertEquals(1, lifeCycle.destroyed.get());
+        assertEquals(1, pool.getStats().getPoolSize());
+        Object obj = get();
+        assertSame(hot, obj);
+        pool.put(obj);
+    }
+
+    @Test
+    public void idleTimeoutKeepsTheMinSize() throws Exception {
+        pool = newPool(3, 2, 20);
+        pool.start();
+        List<Object> objs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            objs.add(get());
+        }
+        for (Object obj : objs) {
+            pool.put(obj);
+        }
+        awaitPoolSize(2);
+        // Several idle timeouts later the min size objects are still there.
+        Thread.sleep(200);
+        assertEquals(2, pool.getStats().getPoolSize());
+        assertEquals(1, lifeCycle.destroyed.get());
+    }
+
+    @Test
+    public void objectCheckedOutBeforeItsTimerFiresIsKept() throws Exception {
+        pool = newPool(1, 0, 50);
+        pool.start();
+        Object obj = get();
+        pool.put(obj);
+        // Claim it again just before its idle timeout, and hold it past the timer.
+        Thread.sleep(40);
+        assertSame(obj, get());
+        Thread.sleep(200);
+        assertEquals(0, lifeCycle.destroyed.get());
+        assertEquals(1, pool.getStats().getCheckedOut());
+
+        // Once returned, the timer is re-armed from the put.
+        pool.put(obj);
+        awaitPoolSize(0);
+        assertEquals(1, lifeCycle.destroyed.get());
+    }
+
+    @Test
+    public void objectsAreRotatedOneAtATimeWithJitter() throws Exception {
+        // The replacement exists alongside the old object only briefly, look at the
+        // pool size right when it is created rather than hope to sample it.
+        final AtomicInteger largestOnCreate = new AtomicInteger();
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            public void create(Callback<Object> callback) {
+                int size = pool.getStats().getPoolSize();
+                int seen;
+                do {
+                    seen = largestOnCreate.get();
+                } while (size > seen && !largestOnCreate.compareAndSet(seen, size));
+                super.create(callback);
+            }
+        };
+        pool = newPool(10, 10, 20);
+        pool.setMaxLifetime(1000, 900);
+        pool.start();
+        long start = System.currentTimeMillis();
+        assertEquals(10, lifeCycle.created.get());
+
+        long firstRetired = 0;
+        int largest = 0;
+        int smallest = Integer.MAX_VALUE;
+        long deadline = start + WAIT * 1000;
+        while (lifeCycle.destroyed.get() < 10 && System.currentTimeMillis() < deadline) {
+            if (firstRetired == 0 && lifeCycle.destroyed.get() > 0) {
+                firstRetired = System.currentTimeMillis() - start;
+            }
+            int size = pool.getStats().getPoolSize();
+            largest = Math.max(largest, size);
+            smallest = Math.min(smallest, size);
+            Thread.sleep(1);
+        }
+        assertTrue(lifeCycle.destroyed.get() >= 10);
+        // Some object got a shorter lifetime than the max.
+        assertTrue("first retired after " + firstRetired + "ms", firstRetired > 0 && firstRetired < 1000);
+        // One replacement at a time, and the old object served until it existed.
+        assertEquals(11, Math.max(largest, largestOnCreate.get()));
+        assertEquals(10, smallest);
+        assertEquals(0, lifeCycle.badDestroyed.get());
+    }
+
+    @Test
+    public void checkedOutObjectIsRetiredOnceReturned() throws Exception {
+        pool = newPool(2, 1, 20);
+        pool.setMaxLifetime(200, 0);
+        pool.start();
+        Object old = get();
+
+        // The replacement goes idle only after the old object is marked retired.
+        long deadline = System.currentTimeMillis() + WAIT * 1000;
+        while (pool.getStats().getIdleCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, lifeCycle.destroyed.get());
+        pool.put(old);
+        assertEquals(1, lifeCycle.destroyed.get());
+        assertEquals(0, lifeCycle.badDestroyed.get());
+        assertEquals(1, pool.getStats().getPoolSize());
+
+        Object replacement = get();
+        assertNotSame(old, replacement);
+        pool.put(replacement);
+    }
+
+    @Test
+    public void idleSlotsHoldTheReplacementsOfQueuedObjects() throws Exception {
+        final List<Object> retired = new CopyOnWriteArrayList<>();
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            public void destroy(Object obj, boolean error, Callback<Object> callback) {
+                retired.add(obj);
+                super.destroy(obj, error, callback);
+            }
+        };
+        pool = newPool(4, 4, 20);
+        pool.setMaxLifetime(300, 0);
+        pool.setIdleStore(AsyncPoolImpl.IdleStore.SLOTS);
+        pool.setThreadAffinity(true);
+        pool.start();
+        List<Object> originals = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            originals.add(get());
+        }
+        for (Object obj : originals) {
+            pool.put(obj);
+        }
+        // Checked out through the affinity list, so the entries are still in their slots.
+        for (int i = 0; i < 4; i++) {
+            assertTrue(originals.contains(get()));
+        }
+
+        long deadline = System.currentTimeMillis() + WAIT * 1000;
+        while (pool.getStats().getIdleCount() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(4, pool.getStats().getIdleCount());
+        for (Object obj : originals) {
+            pool.put(obj);
+        }
+        assertEquals(originals.size(), retired.size());
+        assertTrue(originals.containsAll(retired));
+        assertEquals(4, pool.getStats().getPoolSize());
+    }
+
+    @Test
+    public void idleObjectsAreValidatedInTheBackground() throws Exception {
+        final AtomicInteger validatedOnGet = new AtomicInteger();
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            public boolean validateGet(Object obj) {
+                validatedOnGet.incrementAndGet();
+                return true;
+            }
+        };
+        final BlockingQueue<Callback<Boolean>> validations = new LinkedBlockingQueue<>();
+        final AtomicBoolean hold = new AtomicBoolean(true);
+        pool = newPool(3, 3, 0);
+        pool.setIdleValidation(new AsyncValidator<Object>() {
+            @Override
+            public void validate(Object obj, Callback<Boolean> callback) {
+                if (hold.get()) {
+                    validations.add(callback);
+                } else {
+                    callback.onSuccess(true);
+                }
+            }
+        }, 50, 2, WAIT * 1000);
+        pool.start();
+
+        // One batch at a time, and no more than the batch size.
+        Callback<Boolean> first = validations.poll(WAIT, TimeUnit.SECONDS);
+        Callback<Boolean> second = validations.poll(WAIT, TimeUnit.SECONDS);
+        assertNull(validations.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, pool.getStats().getIdleCount());
+        first.onSuccess(true);
+        second.onSuccess(false);
+        // The failed object is replaced.
+        assertEquals(1, lifeCycle.badDestroyed.get());
+        assertEquals(4, lifeCycle.created.get());
+        hold.set(false);
+
+        long deadline = System.currentTimeMillis() + WAIT * 1000;
+        while (pool.getStats().getIdleCount() < 3 && System.currentTimeMillis() < deadline) {
+            for (Callback<Boolean> callback; (callback = validations.poll()) != null;) {
+                callback.onSuccess(true);
+            }
+            Thread.sleep(1);
+        }
+        // Validated lately, so get trusts them.
+        List<Object> objs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            objs.add(get());
+        }
+        assertEquals(0, validatedOnGet.get());
+        for (Object obj : objs) {
+            pool.put(obj);
+        }
+    }
+
+    @Test
+    public void asyncValidationOnGet() throws Exception {
+        final BlockingQueue<Callback<Boolean>> validations = new LinkedBlockingQueue<>();
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            public boolean isAsyncValidation() {
+                return true;
+            }
+
+            @Override
+            public boolean validateGet(Object obj) {
+                throw new AssertionError("validated inline");
+            }
+
+            @Override
+            public void validateGet(Object obj, Callback<Boolean> callback) {
+                validations.add(callback);
+            }
+        };
+        pool = newPool(1);
+        pool.start();
+
+        FutureCallback<Object> first = new FutureCallback<>();
+        pool.get(first);
+        assertFalse(first.isDone());
+        validations.take().onSuccess(true);
+        Object obj = first.get(WAIT, TimeUnit.SECONDS);
+        pool.put(obj);
+
+        // A failed object is destroyed and the waiter gets a new one.
+        FutureCallback<Object> second = new FutureCallback<>();
+        pool.get(second);
+        validations.take().onSuccess(false);
+        assertFalse(second.isDone());
+        validations.take().onSuccess(true);
+        assertNotSame(obj, second.get(WAIT, TimeUnit.SECONDS));
+        assertEquals(1, lifeCycle.badDestroyed.get());
+        pool.put(second.get());
+    }
+
+    @Test
+    public void asyncValidationOnPut() throws Exception {
+        final BlockingQueue<Callback<Boolean>> validations = new LinkedBlockingQueue<>();
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            public boolean isAsyncValidation() {
+                return true;
+            }
+
+            @Override
+            public boolean validatePut(Object obj) {
+                throw new AssertionError("validated inline");
+            }
+
+            @Override
+            public void validatePut(Object obj, Callback<Boolean> callback) {
+                validations.add(callback);
+            }
+        };
+        pool = newPool(1);
+        pool.start();
+        Object obj = get();
+
+        // The object goes idle once it passed.
+        pool.put(obj);
+        assertEquals(0, pool.getStats().getCheckedOut());
+        assertEquals(0, pool.getStats().getIdleCount());
+        validations.take().onSuccess(true);
+        assertEquals(1, pool.getStats().getIdleCount());
+        assertSame(obj, get());
+
+        // A failed object is destroyed rather than kept.
+        pool.put(obj);
+        validations.take().onSuccess(false);
+        assertEquals(1, lifeCycle.badDestroyed.get());
+        assertEquals(0, pool.getStats().getPoolSize());
+        Object next = get();
+        assertNotSame(obj, next);
+        pool.put(next);
+        validations.take().onSuccess(true);
+    }
+
+    @Test
+    public void higherPrioritiesAreServedFirst() throws Exception {
+        pool = newPool(1);
+        pool.setPriorityAging(0);
+        pool.setMaxWaiters(AsyncPoolImpl.Priority.LOW, 1);
+        pool.start();
+        Object obj = get();
+
+        FutureCallback<Object> low = new FutureCallback<>();
+        FutureCallback<Object> normal = new FutureCallback<>();
+        FutureCallback<Object> high = new FutureCallback<>();
+        pool.get(low, AsyncPoolImpl.Priority.LOW);
+        pool.get(normal, AsyncPoolImpl.Priority.NORMAL);
+        pool.get(high, AsyncPoolImpl.Priority.HIGH);
+
+        // The class limit holds on top of maxWaiters.
+        FutureCallback<Object> rejected = new FutureCallback<>();
+        pool.get(rejected, AsyncPoolImpl.Priority.LOW);
+        try {
+            rejected.get(WAIT, TimeUnit.SECONDS);
+            fail("a second low priority waiter was queued");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SizeLimitExceededException);
+        }
+
+        pool.put(obj);
+        obj = high.get(WAIT, TimeUnit.SECONDS);
+        assertFalse(normal.isDone());
+        pool.put(obj);
+        obj = normal.get(WAIT, TimeUnit.SECONDS);
+        assertFalse(low.isDone());
+        pool.put(obj);
+        pool.put(low.get(WAIT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void agedWaitersCatchUpWithHigherPriorities() throws Exception {
+        pool = newPool(1);
+        pool.setPriorityAging(50);
+        pool.start();
+        Object obj = get();
+
+        FutureCallback<Object> low = new FutureCallback<>();
+        pool.get(low, AsyncPoolImpl.Priority.LOW);
+        // Two aging periods make it a high priority waiter, which asked first.
+        Thread.sleep(120);
+        FutureCallback<Object> high = new FutureCallback<>();
+        pool.get(high, AsyncPoolImpl.Priority.HIGH);
+
+        pool.put(obj);
+        obj = low.get(WAIT, TimeUnit.SECONDS);
+        assertFalse(high.isDone());
+        pool.put(obj);
+        pool.put(high.get(WAIT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void overloadedWaitersAreShedWithoutAnyPut() throws Exception {
+        pool = newPool(1);
+        pool.setQueueDiscipline(AsyncPoolImpl.Discipline.CODEL, 20, 50);
+        pool.start();
+        Object obj = get();
+
+        // Nothing comes back, only the tick sees the queue standing.
+        List<FutureCallback<Object>> waiters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            FutureCallback<Object> waiter = new FutureCallback<>();
+            pool.get(waiter);
+            waiters.add(waiter);
+        }
+        for (FutureCallback<Object> waiter : waiters) {
+            try {
+                waiter.get(WAIT, TimeUnit.SECONDS);
+                fail("the waiter was served");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof OverloadException);
+            }
+        }
+
+        // The drained queue ended the overload, a new waiter is served in order.
+        FutureCallback<Object> first = new FutureCallback<>();
+        FutureCallback<Object> second = new FutureCallback<>();
+        pool.get(first);
+        pool.get(second);
+        pool.put(obj);
+        obj = first.get(WAIT, TimeUnit.SECONDS);
+        assertFalse(second.isDone());
+        pool.put(obj);
+        pool.put(second.get(WAIT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void autoScalingShrinksToItsFloorWithoutIdleTimeout() throws Exception {
+        pool = newPool(40);
+        pool.setAutoScaling(0, 20);
+        pool.start();
+
+        // Starts at a tenth of maxSize, not at one object.
+        List<Object> objs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            objs.add(get());
+        }
+        assertEquals(4, lifeCycle.created.get());
+        // The waiters make it grow.
+        for (int i = 0; i < 8; i++) {
+            objs.add(get());
+        }
+        assertEquals(12, pool.getStats().getPoolSize());
+        for (Object obj : objs) {
+            pool.put(obj);
+        }
+
+        long deadline = System.currentTimeMillis() + WAIT * 1000;
+        while (pool.getStats().getPoolSize() > 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, pool.getStats().getPoolSize());
+        assertEquals(8, lifeCycle.destroyed.get());
+        assertEquals(0, lifeCycle.badDestroyed.get());
+    }
+
+    @Test
+    public void predictedDemandIsCreatedAhead() throws Exception {
+        pool = newPool(20);
+        pool.setPredictiveCreation(100);
+        pool.start();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch stopped = new CountDownLatch(4);
+        // Four holders, so never more than four objects in use at once.
+        for (int i = 0; i < 4; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!stop.get()) {
+                            Object obj = get();
+                            Thread.sleep(20);
+                            pool.put(obj);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        stopped.countDown();
+                    }
+                }
+            }).start();
+        }
+        try {
+            long deadline = System.currentTimeMillis() + WAIT * 1000;
+            while (pool.getStats().getPoolSize() <= 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            stop.set(true);
+            assertTrue(stopped.await(WAIT, TimeUnit.SECONDS));
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("a holder failed", failure.get());
+        }
+        // About four in use by Little's law, plus a margin for bursts.
+        int size = pool.getStats().getPoolSize();
+        assertTrue("pool size " + size, size > 4 && size < 20);
+        assertEquals(0, pool.getStats().getCheckedOut());
+    }
+
+    @Test
+    public void warmUpCompletesWithBoundedParallelism() throws Exception {
+        final BlockingQueue<Callback<Object>> creations = new LinkedBlockingQueue<>();
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            public void create(Callback<Object> callback) {
+                created.incrementAndGet();
+                creations.add(callback);
+            }
+        };
+        pool = newPool(10, 6, 0);
+        FutureCallback<None> warm = new FutureCallback<>();
+        pool.start(2, warm);
+
+        for (int i = 0; i < 6; i++) {
+            Callback<Object> creation = creations.poll(WAIT, TimeUnit.SECONDS);
+            assertNotNull(creation);
+            // The other creation in flight, if there is one left to launch.
+            assertEquals(Math.min(1, 5 - i), creations.size());
+            assertFalse(warm.isDone());
+            creation.onSuccess(new Object());
+        }
+        warm.get(WAIT, TimeUnit.SECONDS);
+        assertEquals(6, lifeCycle.created.get());
+        assertEquals(6, pool.getStats().getIdleCount());
+    }
+
+    @Test
+    public void warmUpReportsFailedCreations() throws Exception {
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            public void create(Callback<Object> callback) {
+                if (created.incrementAndGet() == 1) {
+                    callback.onError(new IllegalStateException("create"));
+                } else {
+                    callback.onSuccess(newObject());
+                }
+            }
+        };
+        pool = newPool(10, 3, 0);
+        FutureCallback<None> warm = new FutureCallback<>();
+        pool.start(1, warm);
+        try {
+            warm.get(WAIT, TimeUnit.SECONDS);
+            fail("the warm-up succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("failed to create 1 of"));
+            assertEquals("create", e.getCause().getCause().getMessage());
+        }
+        // The pool still fills up to its min size.
+        assertEquals(3, pool.getStats().getPoolSize());
+    }
+
+    @Test
+    public void countersAddUpUnderConcurrentChurn() throws Exception {
+        pool = newPool(4);
+        pool.start();
+        final CountDownLatch stopped = new CountDownLatch(4);
+        final AtomicInteger disposed = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < 4; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 500; j++) {
+                            FutureCallback<Object> callback = new FutureCallback<>();
+                            pool.get(callback);
+                            Object obj = callback.get(WAIT, TimeUnit.SECONDS);
+                            if (j % 10 == 0) {
+                                disposed.incrementAndGet();
+                                pool.dispose(obj);
+                            } else {
+                                pool.put(obj);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        stopped.countDown();
+                    }
+                }
+            }).start();
+        }
+        assertTrue(stopped.await(WAIT * 2, TimeUnit.SECONDS));
+        if (failure.get() != null) {
+            throw new AssertionError("a churning thread failed", failure.get());
+        }
+
+        PoolStats stats = pool.getStats();
+        assertEquals(0, stats.getCheckedOut());
+        assertEquals(lifeCycle.created.get(), stats.getTotalCreated());
+        assertEquals(disposed.get(), stats.getTotalDestroyed());
+        assertEquals(disposed.get(), stats.getTotalBadDestroyed());
+        assertEquals(lifeCycle.destroyed.get(), stats.getTotalDestroyed());
+        assertEquals(stats.getTotalCreated() - stats.getTotalDestroyed(), stats.getPoolSize());
+        assertEquals(stats.getPoolSize(), stats.getIdleCount());
+        assertEquals(0, stats.getTotalTimeout());
+    }
+
+    @Test
+    public void rateWindowsCountAcquiresAndRejects() throws Exception {
+        pool = new AsyncPoolImpl<>("test", 1, 0, lifeCycle, executor, executor, 1);
+        pool.start();
+        for (int i = 0; i < 9; i++) {
+            pool.put(get());
+        }
+        Object obj = get();
+        FutureCallback<Object> waiter = new FutureCallback<>();
+        pool.get(waiter);
+        for (int i = 0; i < 3; i++) {
+            FutureCallback<Object> rejected = new FutureCallback<>();
+            pool.get(rejected);
+            try {
+                rejected.get(WAIT, TimeUnit.SECONDS);
+                fail("a full waiter queue must reject");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SizeLimitExceededException);
+            }
+        }
+        pool.put(obj);
+        pool.put(waiter.get(WAIT, TimeUnit.SECONDS));
+
+        // Only whole seconds count, wait for the current one to end.
+        long second = System.currentTimeMillis() / 1000;
+        while (System.currentTimeMillis() / 1000 == second) {
+            Thread.sleep(10);
+        }
+        PoolStats stats = pool.getStats();
+        assertEquals(11, stats.getAcquireRate().getLast10s() * 10, 0.001);
+        assertEquals(11, stats.getAcquireRate().getLast60s() * 60, 0.001);
+        assertEquals(3, stats.getRejectRate().getLast10s() * 10, 0.001);
+        assertEquals(1, stats.getCreateRate().getLast60s() * 60, 0.001);
+        assertEquals(0, stats.getCreateErrorRate().getLast60s(), 0.001);
+    }
+
+    @Test
+    public void mbeanIsRegisteredWhileThePoolRuns() throws Exception {
+        ObjectName name = AsyncPoolManagement.objectName("test-" + System.nanoTime());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        pool = newPool(2);
+        pool.setMBeanName(name);
+        pool.start();
+        assertTrue(server.isRegistered(name));
+
+        Object obj = get();
+        assertEquals(1, server.getAttribute(name, "CheckedOut"));
+        server.invoke(name, "resize", new Object[] {1, 4}, new String[] {"int", "int"});
+        assertEquals(4, server.getAttribute(name, "MaxPoolSize"));
+        assertEquals(4, pool.getStats().getMaxPoolSize());
+        pool.put(obj);
+        // The attributes come from a snapshot of at most STATS_MAX_AGE.
+        Thread.sleep(AsyncPoolManagement.STATS_MAX_AGE + 1);
+        assertEquals(1, server.getAttribute(name, "IdleCount"));
+
+        FutureCallback<None> done = new FutureCallback<>();
+        pool.shutdown(done);
+        done.get(WAIT, TimeUnit.SECONDS);
+        pool = null;
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void resizeServesWaitersAndShrinksIdle() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        Object first = get();
+        FutureCallback<Object> waiter = new FutureCallback<>();
+        pool.get(waiter);
+
+        pool.resize(0, 3);
+        Object second = waiter.get(WAIT, TimeUnit.SECONDS);
+        Object third = get();
+        assertEquals(3, pool.getStats().getPoolSize());
+        pool.put(first);
+        pool.put(second);
+        assertEquals(2, pool.getStats().getIdleCount());
+
+        // The idle objects above the new max go now, the checked out one once returned.
+        pool.resize(0, 1);
+        assertEquals(1, pool.getStats().getPoolSize());
+        assertEquals(0, pool.getStats().getIdleCount());
+        pool.put(third);
+        assertEquals(1, pool.getStats().getPoolSize());
+        assertEquals(1, pool.getStats().getIdleCount());
+        assertEquals(2, lifeCycle.destroyed.get());
+    }
+
+    @Test
+    public void resizeStaysWithinTheIdleSlots() throws Exception {
+        pool = newPool(10);
+        pool.setMaxLifetime(60000, 0);
+        pool.setIdleStore(AsyncPoolImpl.IdleStore.SLOTS);
+        pool.start();
+
+        // 10 objects and one retiring fit the 11 slots, 11 and two retiring do not.
+        pool.resize(0, 10);
+        try {
+            pool.resize(0, 11);
+            fail("the pool must not outgrow its idle slots");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            pool.resize(0, Integer.MAX_VALUE);
+            fail("the pool must not outgrow its idle slots");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        assertEquals(10, pool.getStats().getMaxPoolSize());
+    }
+
+    @Test
+    public void createLatchCallsThePoolListener() throws Exception {
+        final BlockingQueue<Callback<Object>> creates = new LinkedBlockingQueue<>();
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            public void create(Callback<Object> callback) {
+                created.incrementAndGet();
+                creates.add(callback);
+            }
+        };
+        final AtomicInteger delayed = new AtomicInteger();
+        pool = new AsyncPoolImpl<>("test", 2, 0, lifeCycle, executor, executor, Integer.MAX_VALUE, 0,
+                new SimpleCreateLatch(100, 10, executor, 1), AsyncPoolImpl.Strategy.LRU);
+        pool.setPoolListener(new PoolListener<Object>() {
+            @Override
+            public void onCreateDelayed(int pending) {
+                delayed.set(pending);
+            }
+        });
+        pool.start();
+        FutureCallback<Object> first = new FutureCallback<>();
+        FutureCallback<Object> second = new FutureCallback<>();
+        pool.get(first);
+        pool.get(second);
+        // The latch runs one create at a time and holds the second one back.
+        assertEquals(1, delayed.get());
+        creates.poll(WAIT, TimeUnit.SECONDS).onSuccess(new Object());
+        creates.poll(WAIT, TimeUnit.SECONDS).onSuccess(new Object());
+        pool.put(first.get(WAIT, TimeUnit.SECONDS));
+        pool.put(second.get(WAIT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void throwingListenerDoesNotBreakThePool() throws Exception {
+        pool = newPool(1);
+        pool.setPoolListener(new PoolListener<Object>() {
+            @Override
+            public void onBorrow(Object obj) {
+                throw new IllegalStateException("onBorrow");
+            }
+
+            @Override
+            public void onReturn(Object obj) {
+                throw new IllegalStateException("onReturn");
+            }
+
+            @Override
+            public void onCreateSuccess(Object obj, long nanos) {
+                throw new IllegalStateException("onCreateSuccess");
+            }
+
+            @Override
+            public void onDestroy(Object obj, boolean bad) {
+                throw new IllegalStateException("onDestroy");
+            }
+
+            @Override
+            public void onWaiterEnqueue() {
+                throw new IllegalStateException("onWaiterEnqueue");
+            }
+
+            @Override
+            public void onCreateStart() {
+                throw new IllegalStateException("onCreateStart");
+            }
+
+            @Override
+            public void onWaiterTimeout(long waited) {
+                throw new IllegalStateException("onWaiterTimeout");
+            }
+
+            @Override
+            public void onShutdownStart() {
+                throw new IllegalStateException("onShutdownStart");
+            }
+
+            @Override
+            public void onShutdownComplete() {
+                throw new IllegalStateException("onShutdownComplete");
+            }
+        });
+        pool.start();
+        Object obj = get();
+        pool.put(obj);
+        assertSame(obj, get());
+
+        // A queued waiter is served by the put, a timed one still times out.
+        FutureCallback<Object> waiter = new FutureCallback<>();
+        pool.get(waiter);
+        FutureCallback<Object> timed = new FutureCallback<>();
+        pool.get(timed, 20, TimeUnit.MILLISECONDS);
+        try {
+            timed.get(WAIT, TimeUnit.SECONDS);
+            fail("the waiter must time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AcquireTimeoutException);
+        }
+        pool.put(obj);
+        assertSame(obj, waiter.get(WAIT, TimeUnit.SECONDS));
+
+        pool.dispose(obj);
+        assertEquals(1, lifeCycle.badDestroyed.get());
+        assertEquals(0, pool.getStats().getPoolSize());
+
+        Object next = get();
+        assertNotSame(obj, next);
+        pool.put(next);
+        assertEquals(0, pool.getStats().getCheckedOut());
+        assertEquals(1, pool.getStats().getIdleCount());
+
+        FutureCallback<None> done = new FutureCallback<>();
+        pool.shutdown(done);
+        done.get(WAIT, TimeUnit.SECONDS);
+        pool = null;
+    }
+
+    /**
+     * A pool object which is equal to any other, with a hash code its holder may change.
+     */
+    private static final class Mutable {
+
+        private int hash = 0;
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Mutable;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.xqbase.apool.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link EntryTable}.
+ *
+ * @author Tony He
+ */
+public class EntryTableTest {
+
+    @Test
+    public void entriesSurviveRemovalsAndRebuilds() {
+        EntryTable<String> table = new EntryTable<>();
+        List<TimedObject<String>> live = new ArrayList<>();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                // Equal strings, told apart only by identity.
+                TimedObject<String> entry = new TimedObject<>(new String("obj"));
+                table.put(entry);
+                live.add(entry);
+            }
+            for (int i = 0; i < 40; i++) {
+                TimedObject<String> entry = live.remove(live.size() / 2);
+                assertSame(entry, table.remove(entry.getObj()));
+                assertNull(table.get(entry.getObj()));
+            }
+            for (TimedObject<String> entry : live) {
+                assertSame(entry, table.get(entry.getObj()));
+            }
+        }
+
+        Map<TimedObject<String>, Boolean> seen = new IdentityHashMap<>();
+        for (TimedObject<String> entry : table) {
+            assertNull(seen.put(entry, true));
+        }
+        assertEquals(live.size(), seen.size());
+        assertNull(table.get("obj"));
+        assertNull(table.get(null));
+    }
+
+    @Test
+    public void putReplacesTheEntryOfTheSameObject() {
+        EntryTable<Object> table = new EntryTable<>();
+        Object obj = new Object();
+        TimedObject<Object> first = new TimedObject<>(obj);
+        TimedObject<Object> second = new TimedObject<>(obj);
+        table.put(first);
+        table.put(second);
+        assertSame(second, table.get(obj));
+        assertSame(second, table.remove(obj));
+        assertFalse(table.iterator().hasNext());
+    }
+}
@@ -0,0 +1,142 @@
+package com.xqbase.apool.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link IdleQueue} implementations.
+ *
+ * @author Tony He
+ */
+public class IdleQueueTest {
+
+    private static TimedObject<Integer> idle(int i) {
+        TimedObject<Integer> entry = new TimedObject<>(i);
+        entry.release(i);
+        return entry;
+    }
+
+    private static void pollsInOrder(IdleQueue<Integer> queue, AsyncPoolImpl.Strategy strategy) {
+        List<TimedObject<Integer>> entries = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            TimedObject<Integer> entry = idle(i);
+            entries.add(entry);
+            queue.offer(entry);
+        }
+        // Destroy all but every tenth, the way the pool does.
+        for (TimedObject<Integer> entry : entries) {
+            if (entry.getObj() % 10 != 0 && entry.tryRemove()) {
+                queue.remove(entry);
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            TimedObject<Integer> entry = queue.poll();
+            assertNotNull(entry);
+            assertTrue(entry.isInUse());
+            int expected = strategy == AsyncPoolImpl.Strategy.LRU ? (i + 1) * 10 : 1000 - i * 10;
+            assertEquals(expected, (int) entry.getObj());
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void dequeSkipsRemovedEntries() {
+        for (AsyncPoolImpl.Strategy strategy : AsyncPoolImpl.Strategy.values()) {
+            pollsInOrder(new DequeIdleQueue<Integer>(strategy), strategy);
+        }
+    }
+
+    @Test
+    public void slotsSkipRemovedEntries() {
+        for (AsyncPoolImpl.Strategy strategy : AsyncPoolImpl.Strategy.values()) {
+            pollsInOrder(new SlotIdleQueue<Integer>(1000, strategy), strategy);
+        }
+    }
+
+    @Test
+    public void fullSlotsRefuseAnEntry() {
+        SlotIdleQueue<Integer> queue = new SlotIdleQueue<>(70, AsyncPoolImpl.Strategy.LRU);
+        for (int i = 1; i <= 70; i++) {
+            assertTrue(queue.offer(idle(i)));
+        }
+        TimedObject<Integer> extra = idle(71);
+        assertFalse(queue.offer(extra));
+        assertFalse(extra.isQueued());
+
+        // A polled slot is free for the next offer.
+        assertEquals(1, (int) queue.poll().getObj());
+        assertTrue(queue.offer(extra));
+        for (int i = 2; i <= 71; i++) {
+            assertEquals(i, (int) queue.poll().getObj());
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void slotsKeepTheOrderAcrossLaps() {
+        for (AsyncPoolImpl.Strategy strategy : AsyncPoolImpl.Strategy.values()) {
+            SlotIdleQueue<Integer> queue = new SlotIdleQueue<>(100, strategy);
+            for (int i = 1; i <= 50; i++) {
+                assertTrue(queue.offer(idle(i)));
+            }
+            // Many times around the ring, each poll followed by the offer of a newer entry.
+            for (int i = 51; i <= 1000; i++) {
+                int expected = strategy == AsyncPoolImpl.Strategy.LRU ? i - 50 : i - 1;
+                assertEquals(expected, (int) queue.poll().getObj());
+                assertTrue(queue.offer(idle(i)));
+            }
+        }
+    }
+
+    @Test
+    public void slotsMoveAnEntryClaimedWhileQueued() {
+        for (AsyncPoolImpl.Strategy strategy : AsyncPoolImpl.Strategy.values()) {
+            SlotIdleQueue<Integer> queue = new SlotIdleQueue<>(10, strategy);
+            TimedObject<Integer> first = idle(1);
+            queue.offer(first);
+            queue.offer(idle(2));
+            queue.offer(idle(3));
+            // Checked out through an affinity list and returned, it is the newest now.
+            assertTrue(first.tryClaim());
+            first.release();
+            assertTrue(queue.offer(first));
+            int[] expected = strategy == AsyncPoolImpl.Strategy.LRU ? new int[] {2, 3, 1} : new int[] {1, 3, 2};
+            for (int obj : expected) {
+                assertEquals(obj, (int) queue.poll().getObj());
+            }
+            assertNull(queue.poll());
+        }
+    }
+
+    @Test
+    public void fullSlotsDropRemovedEntries() {
+        SlotIdleQueue<Integer> queue = new SlotIdleQueue<>(2, AsyncPoolImpl.Strategy.LRU);
+        TimedObject<Integer> removed = idle(1);
+        assertTrue(queue.offer(removed));
+        assertTrue(queue.offer(idle(2)));
+        // Removed while its offer was on the way, so the remove missed it.
+        assertTrue(removed.tryRemove());
+        assertTrue(queue.offer(idle(3)));
+        assertEquals(5, queue.poll().getObj() + queue.poll().getObj());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void returnedEntryIsPolledAgain() {
+        DequeIdleQueue<Integer> queue = new DequeIdleQueue<>(AsyncPoolImpl.Strategy.LRU);
+        TimedObject<Integer> entry = idle(1);
+        for (int i = 0; i < 100; i++) {
+            queue.offer(entry);
+            assertSame(entry, queue.poll());
+            entry.release();
+        }
+        queue.offer(entry);
+        assertTrue(entry.tryRemove());
+        queue.remove(entry);
+        assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,306 @@
+package com.xqbase.apool.impl;
+
+import com.xqbase.apool.callback.FutureCallback;
+import com.xqbase.apool.exceptions.SizeLimitExceededException;
+import com.xqbase.apool.stats.LatencyStats;
+import com.xqbase.apool.util.None;
+import com.xqbase.apool.util.ThreadProbe;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Behavioral tests of {@link StripedAsyncPool}.
+ *
+ * @author Tony He
+ */
+public class StripedAsyncPoolTest {
+
+    private static final long WAIT = 5;
+
+    private ScheduledExecutorService executor;
+    private TestLifeCycle lifeCycle;
+    private StripedAsyncPool<Object> pool;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newScheduledThreadPool(2);
+        lifeCycle = new TestLifeCycle();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (pool != null && pool.getStats().getCheckedOut() == 0) {
+            FutureCallback<None> done = new FutureCallback<>();
+            pool.shutdown(done);
+            done.get(WAIT, TimeUnit.SECONDS);
+        }
+        executor.shutdownNow();
+    }
+
+    private StripedAsyncPool<Object> newPool(int maxSize) {
+        return new StripedAsyncPool<>("test", maxSize, 0, lifeCycle, executor, executor, Integer.MAX_VALUE,
+                0, new NoopCreateLatch(), AsyncPoolImpl.Strategy.LRU, 2);
+    }
+
+    private Object get() throws Exception {
+        FutureCallback<Object> callback = new FutureCallback<>();
+        pool.get(callback);
+        return callback.get(WAIT, TimeUnit.SECONDS);
+    }
+
+    private static int stripeOf(int probe, int stripeCount) {
+        return (probe & Integer.MAX_VALUE) % stripeCount;
+    }
+
+    /**
+     * Run a task on a new thread whose home stripe is not the one of the calling thread.
+     *
+     * @param task the task.
+     * @return the result of the task.
+     */
+    private static <V> V onAnotherStripe(final Callable<V> task) throws Exception {
+        final int home = stripeOf(ThreadProbe.get(), 2);
+        FutureTask<V> future = new FutureTask<>(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                while (stripeOf(ThreadProbe.get(), 2) == home) {
+                    ThreadProbe.advance();
+                }
+                return task.call();
+            }
+        });
+        new Thread(future).start();
+        return future.get(WAIT, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void idleObjectsAreStolenFromOtherStripes() throws Exception {
+        pool = newPool(2);
+        pool.start();
+        Object obj = get();
+        pool.put(obj);
+
+        Object stolen = onAnotherStripe(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return get();
+            }
+        });
+        assertSame(obj, stolen);
+        assertEquals(1, lifeCycle.created.get());
+        pool.put(stolen);
+    }
+
+    @Test
+    public void maxSizeHoldsAcrossStripes() throws Exception {
+        pool = newPool(2);
+        pool.start();
+        Object first = get();
+        Object second = onAnotherStripe(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return get();
+            }
+        });
+        FutureCallback<Object> third = new FutureCallback<>();
+        pool.get(third, 50, TimeUnit.MILLISECONDS);
+        try {
+            third.get(WAIT, TimeUnit.SECONDS);
+            fail("the pool is full");
+        } catch (ExecutionException e) {
+            // Expected, timed out.
+        }
+        assertEquals(2, lifeCycle.created.get());
+        assertEquals(2, pool.getStats().getPoolSize());
+        pool.put(first);
+        pool.put(second);
+    }
+
+    @Test
+    public void waiterIsServedByAPutOnAnotherStripe() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        Object obj = get();
+        FutureCallback<Object> waiter = onAnotherStripe(new Callable<FutureCallback<Object>>() {
+            @Override
+            public FutureCallback<Object> call() {
+                FutureCallback<Object> callback = new FutureCallback<>();
+                pool.get(callback);
+                return callback;
+            }
+        });
+        assertFalse(waiter.isDone());
+        pool.put(obj);
+        assertSame(obj, waiter.get(WAIT, TimeUnit.SECONDS));
+        pool.put(obj);
+    }
+
+    @Test
+    public void maxWaitersIsExceededByLessThanTheStripeCount() throws Exception {
+        final int stripeCount = 4;
+        final int maxWaiters = 2;
+        pool = new StripedAsyncPool<>("test", 1, 0, lifeCycle, executor, executor, maxWaiters,
+                0, new NoopCreateLatch(), AsyncPoolImpl.Strategy.LRU, stripeCount);
+        pool.start();
+        Object obj = get();
+
+        // Gets race on all the stripes for the last waiter place.
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(16);
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        for (int i = 0; i < 16; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        FutureCallback<Object> callback = new FutureCallback<>();
+                        pool.get(callback);
+                        if (!callback.isDone()) {
+                            queued.incrementAndGet();
+                        } else {
+                            try {
+                                callback.get();
+                            } catch (ExecutionException e) {
+                                if (e.getCause() instanceof SizeLimitExceededException) {
+                                    rejected.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(WAIT, TimeUnit.SECONDS));
+        assertEquals(16, queued.get() + rejected.get());
+        assertTrue("queued " + queued.get(), queued.get() >= maxWaiters && queued.get() < maxWaiters + stripeCount);
+
+        assertEquals(queued.get(), pool.cancelWaiters().size());
+        pool.put(obj);
+    }
+
+    @Test
+    public void secondPutIsIgnored() throws Exception {
+        pool = newPool(2);
+        pool.start();
+        Object obj = get();
+        pool.put(obj);
+        pool.put(obj);
+        assertEquals(0, pool.getStats().getCheckedOut());
+        assertEquals(1, pool.getStats().getIdleCount());
+
+        // The object is handed out once, the next get creates another.
+        Object first = get();
+        Object second = get();
+        assertSame(obj, first);
+        assertNotSame(first, second);
+        pool.put(first);
+        pool.put(second);
+        assertEquals(2, lifeCycle.created.get());
+    }
+
+    @Test
+    public void foreignObjectsAreIgnored() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        Object obj = get();
+        pool.put(new Object());
+        pool.dispose(new Object());
+        assertEquals(1, pool.getStats().getCheckedOut());
+        assertEquals(0, lifeCycle.destroyed.get());
+        pool.put(obj);
+        assertEquals(0, pool.getStats().getCheckedOut());
+    }
+
+    @Test
+    public void disposeAfterPutIsIgnored() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        Object obj = get();
+        pool.dispose(obj);
+        pool.dispose(obj);
+        pool.put(obj);
+        assertEquals(0, pool.getStats().getCheckedOut());
+        assertEquals(0, pool.getStats().getIdleCount());
+        assertEquals(1, lifeCycle.badDestroyed.get());
+
+        Object next = get();
+        assertNotSame(obj, next);
+        pool.put(next);
+    }
+
+    @Test
+    public void holdAndWaitTimesAreRecorded() throws Exception {
+        pool = newPool(1);
+        pool.start();
+        Object obj = get();
+        FutureCallback<Object> waiter = new FutureCallback<>();
+        pool.get(waiter);
+        Thread.sleep(20);
+        pool.put(obj);
+        pool.put(waiter.get(WAIT, TimeUnit.SECONDS));
+
+        // In microseconds, the first get waited for the object to be created.
+        LatencyStats hold = pool.getStats().getHoldTime();
+        assertEquals(2, hold.getCount());
+        assertTrue(hold.getMax() >= 15000);
+        LatencyStats wait = pool.getStats().getWaitTime();
+        assertEquals(2, wait.getCount());
+        assertTrue(wait.getMax() >= 15000 && wait.getMax() < WAIT * 1000000);
+    }
+
+    @Test
+    public void asyncValidationIsRejected() {
+        lifeCycle = new TestLifeCycle() {
+            @Override
+            public boolean isAsyncValidation() {
+                return true;
+            }
+        };
+        try {
+            newPool(1);
+            fail("the stripes validate synchronously");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void theOldestIdleObjectIsReapedUnderMru() throws Exception {
+        pool = new StripedAsyncPool<>("test", 2, 100, lifeCycle, executor, executor, Integer.MAX_VALUE,
+                1, new NoopCreateLatch(), AsyncPoolImpl.Strategy.MRU, 1);
+        pool.start();
+        Object old = get();
+        Object recent = get();
+        pool.put(old);
+        Thread.sleep(150);
+        pool.put(recent);
+
+        // Only one object is above the min size, the one idle for longer goes.
+        long deadline = System.currentTimeMillis() + WAIT * 1000;
+        while (pool.getStats().getPoolSize() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getStats().getPoolSize());
+        assertSame(recent, get());
+        pool.put(recent);
+    }
+}
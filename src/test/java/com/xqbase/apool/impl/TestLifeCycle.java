@@ -0,0 +1,52 @@
+package com.xqbase.apool.impl;
+
+import com.xqbase.apool.LifeCycle;
+import com.xqbase.apool.callback.Callback;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A life cycle of plain objects which counts what the pool does with them.
+ *
+ * @author Tony He
+ */
+class TestLifeCycle implements LifeCycle<Object> {
+
+    final AtomicInteger created = new AtomicInteger();
+    final AtomicInteger destroyed = new AtomicInteger();
+    final AtomicInteger badDestroyed = new AtomicInteger();
+
+    /**
+     * Make a new pool object.
+     *
+     * @return the new object.
+     */
+    Object newObject() {
+        return new Object();
+    }
+
+    @Override
+    public void create(Callback<Object> callback) {
+        created.incrementAndGet();
+        callback.onSuccess(newObject());
+    }
+
+    @Override
+    public boolean validateGet(Object obj) {
+        return true;
+    }
+
+    @Override
+    public boolean validatePut(Object obj) {
+        return true;
+    }
+
+    @Override
+    public void destroy(Object obj, boolean error, Callback<Object> callback) {
+        destroyed.incrementAndGet();
+        if (error) {
+            badDestroyed.incrementAndGet();
+        }
+        callback.onSuccess(obj);
+    }
+}
@@ -0,0 +1,41 @@
+package com.xqbase.apool.stats;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link LatencyHistogram}.
+ *
+ * @author Tony He
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void concurrentValuesAreAllRecorded() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        // Mostly the same bucket, with a slow tail.
+                        histogram.record(j % 100 == 0 ? 10000 : 100);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        LatencyStats stats = histogram.snapshot();
+        assertEquals(800000, stats.getCount());
+        assertEquals(8 * (99000L * 100 + 1000L * 10000), stats.getSum());
+        assertEquals(100, stats.getP50(), 100 / 8);
+        assertEquals(10000, stats.getMax(), 10000 / 8);
+    }
+}
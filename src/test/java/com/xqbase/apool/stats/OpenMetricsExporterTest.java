@@ -0,0 +1,95 @@
+package com.xqbase.apool.stats;
+
+import com.xqbase.apool.AsyncPool;
+import com.xqbase.apool.callback.Callback;
+import com.xqbase.apool.util.Cancellable;
+import com.xqbase.apool.util.None;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link OpenMetricsExporter}.
+ *
+ * @author Tony He
+ */
+public class OpenMetricsExporterTest {
+
+    @Test
+    public void summariesHaveSumAndCount() throws Exception {
+        final LatencyHistogram waits = new LatencyHistogram();
+        waits.record(1500000);
+        waits.record(250);
+        assertEquals(1500250, waits.getSum());
+        assertEquals(1500250, waits.snapshot().getSum());
+
+        StringBuilder out = new StringBuilder();
+        new OpenMetricsExporter(Collections.singletonList(new StatsOnlyPool() {
+            @Override
+            public void visitStats(StatsVisitor visitor) {
+                visitor.visitPool("p");
+                waits.accept(visitor, StatsVisitor.Latency.WAIT);
+            }
+        })).write(out);
+        String text = out.toString();
+        assertTrue(text, text.contains("# TYPE apool_wait_seconds summary\n"));
+        assertTrue(text, text.contains("apool_wait_seconds_sum{pool=\"p\"} 1.500250\n"));
+        assertTrue(text, text.contains("apool_wait_seconds_count{pool=\"p\"} 2\n"));
+        assertTrue(text, text.endsWith("# EOF\n"));
+    }
+
+    /**
+     * A pool which only has statistics.
+     */
+    private abstract static class StatsOnlyPool implements AsyncPool<Object> {
+
+        @Override
+        public String getName() {
+            return "p";
+        }
+
+        @Override
+        public void start() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Cancellable get(Callback<Object> callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Cancellable get(Callback<Object> callback, long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void put(Object obj) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void dispose(Object obj) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void shutdown(Callback<None> callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Collection<Callback<Object>> cancelWaiters() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public PoolStats getStats() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.xqbase.apool.stats;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link RateWindow}.
+ *
+ * @author Tony He
+ */
+public class RateWindowTest {
+
+    @Test
+    public void concurrentEventsAreAllCounted() throws Exception {
+        final RateWindow window = new RateWindow();
+        // The middle of a second, so that all events fall into it.
+        final long now = 1000000500;
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        window.record(now);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(0, window.getRate(1, now), 0);
+        assertEquals(800000, window.getRate(1, now + 1000), 0);
+        assertEquals(80000, window.getRate(10, now + 1000), 0);
+        // The slot is moved on to a new second, not added to.
+        window.record(now + 61000);
+        assertEquals(1, window.getRate(1, now + 62000), 0);
+        assertEquals(0, window.getRate(60, now + 61000), 0);
+    }
+}